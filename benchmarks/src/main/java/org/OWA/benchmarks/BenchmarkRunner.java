@@ -0,0 +1,27 @@
+package org.OWA.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Точка входа для benchmarks.jar: запускает все бенчмарки горячих путей
+ * с профилировщиком GC, чтобы кроме пропускной способности был виден темп аллокаций.
+ * Аргументы командной строки JMH (фильтр, -f, -wi и т.д.) передаются как есть.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result("jmh-result.json")
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,54 @@
+package org.OWA.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Разбор тела x-www-form-urlencoded: прежний строковый parseForm (split + URLDecoder) против
+ * побайтового RequestDecoder — всех полей и только полей OtpRequest. Тело каждый раз копируется
+ * в рабочий буфер, как при чтении из запроса, потому что RequestDecoder декодирует на месте.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormDecodingBenchmark {
+    @Param({
+        "operationId=payment-7f3a9c21&channel=email",
+        "operationId=order%2F2024%2F000123&code=482913",
+        "username=ivan.petrov&password=S3cr3t%21pass&role=USER&email=ivan.petrov%40example.com"
+    })
+    String body;
+
+    private byte[] bytes;
+    private final byte[] buffer = new byte[RequestDecoder.MAX_BODY_BYTES];
+    private final String[] values = new String[OtpRequest.FIELDS.length];
+
+    @Setup
+    public void setUp() {
+        bytes = body.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Map<String, String> parseForm() {
+        return ApiHandler.parseForm(body);
+    }
+
+    @Benchmark
+    public Map<String, String> decodeAllFields() {
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        return RequestDecoder.decodeForm(buffer, bytes.length);
+    }
+
+    @Benchmark
+    public String[] decodeOtpFields() {
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        values[0] = values[1] = values[2] = null;
+        RequestDecoder.decodeForm(buffer, bytes.length, OtpRequest.FIELDS, values);
+        return values;
+    }
+}
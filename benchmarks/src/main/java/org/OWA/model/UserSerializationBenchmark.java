@@ -0,0 +1,64 @@
+package org.OWA.model;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Сериализация списка пользователей: прежний способ /api/admin/users (весь документ в String)
+ * и текущий потоковый — JsonGenerator пишет каждую строку прямо в поток ответа.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserSerializationBenchmark {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Param({"10", "1000"})
+    int size;
+
+    private List<User> users;
+
+    @Setup
+    public void setUp() {
+        users = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            users.add(new User(i, "user" + i, "$2a$12$abcdefghijklmnopqrstuuJ2Vw0dY3Cq1xVbNnTQXkGm8s9yW5e6", "USER", "user" + i + "@example.com"));
+        }
+    }
+
+    @Benchmark
+    public String writeUsers() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(Map.of("users", users));
+    }
+
+    @Benchmark
+    public void streamUsers() throws IOException {
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(OutputStream.nullOutputStream(), JsonEncoding.UTF8)) {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("users");
+            for (User u : users) {
+                gen.writeStartObject();
+                gen.writeNumberField("id", u.getId());
+                gen.writeStringField("username", u.getUsername());
+                gen.writeStringField("role", u.getRole());
+                gen.writeStringField("email", u.getEmail());
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+            gen.writeNullField("next_after_id");
+            gen.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Запросы в секунду (Throughput) и распределение задержек с p99 (SampleTime) для движков jdk и nio.
+ * Обработчик отвечает так же, как ApiHandler.sendResponse, на пуле из 10 потоков (как server.threads
+ * по умолчанию), поэтому разница определяется самим движком: приёмом, разбором и записью ответа.
+ * Каждый поток JMH — отдельный клиент с keep-alive соединением.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(16)
+public class HttpEngineBenchmark {
+    private static final byte[] REQUEST = ("POST /api/login HTTP/1.1\r\nHost: localhost\r\n"
+        + "Content-Type: application/x-www-form-urlencoded\r\nContent-Length: 29\r\n\r\n"
+        + "username=alice&password=secret").getBytes(StandardCharsets.US_ASCII);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({"jdk", "nio"})
+        public String engine;
+
+        HttpEngine server;
+        ExecutorService executor;
+
+        @Setup
+        public void start() throws IOException {
+            HttpHandler handler = exchange -> {
+                exchange.getRequestBody().readAllBytes();
+                byte[] bytes = "{\"token\":\"eyJhbGciOiJIUzI1NiJ9.e30.sig\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                try (OutputStream os = exchange.getResponseBody()) {
+                    exchange.sendResponseHeaders(200, bytes.length);
+                    os.write(bytes);
+                }
+            };
+            executor = Executors.newFixedThreadPool(10);
+            server = HttpEngine.create(engine, new InetSocketAddress("127.0.0.1", 0), handler, executor);
+            server.start();
+        }
+
+        @TearDown
+        public void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+
+        @Setup
+        public void connect(Server server) throws IOException {
+            socket = new Socket("127.0.0.1", server.server.getAddress().getPort());
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        /** Читает один ответ с Content-Length и возвращает его код. */
+        int readResponse() throws IOException {
+            StringBuilder head = new StringBuilder(256);
+            int b;
+            while ((b = in.read()) != -1) {
+                head.append((char) b);
+                int n = head.length();
+                if (n >= 4 && head.charAt(n - 1) == '\n' && head.charAt(n - 2) == '\r'
+                        && head.charAt(n - 3) == '\n' && head.charAt(n - 4) == '\r') {
+                    break;
+                }
+            }
+            if (b == -1) {
+                throw new IOException("Connection closed by server");
+            }
+            String headers = head.toString().toLowerCase();
+            int at = headers.indexOf("content-length:");
+            int end = headers.indexOf('\r', at);
+            long length = Long.parseLong(headers.substring(at + 15, end).trim());
+            in.skipNBytes(length);
+            return Integer.parseInt(headers.substring(9, 12));
+        }
+    }
+
+    @Benchmark
+    public int request(Client client) throws IOException {
+        client.out.write(REQUEST);
+        client.out.flush();
+        return client.readResponse();
+    }
+}
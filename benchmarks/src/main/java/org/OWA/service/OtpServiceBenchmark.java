@@ -0,0 +1,20 @@
+package org.OWA.service;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OtpServiceBenchmark {
+    @Param({"6", "12"})
+    int length;
+
+    @Benchmark
+    public String randomCode() {
+        return OtpService.randomCode(length);
+    }
+}
@@ -0,0 +1,30 @@
+package org.OWA.service;
+
+import java.util.concurrent.TimeUnit;
+import org.mindrot.jbcrypt.BCrypt;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * BCrypt.checkpw при текущей стоимости AuthService.BCRYPT_WORKLOAD — столько CPU
+ * тратит один успешный логин.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PasswordHashBenchmark {
+    private static final String PASSWORD = "correct horse battery";
+    private String hash;
+
+    @Setup
+    public void setUp() {
+        hash = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(AuthService.BCRYPT_WORKLOAD));
+    }
+
+    @Benchmark
+    public boolean checkpw() {
+        return BCrypt.checkpw(PASSWORD, hash);
+    }
+}
@@ -0,0 +1,34 @@
+package org.OWA.util;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import java.util.concurrent.TimeUnit;
+import org.OWA.model.User;
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtUtilBenchmark {
+    private User user;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        user = new User(42, "benchmark_user", "ignored", "USER", "bench@example.com");
+        token = JwtUtil.generateToken(user);
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return JwtUtil.generateToken(user);
+    }
+
+    @Benchmark
+    public Jws<Claims> parseToken() {
+        return JwtUtil.parseToken(token);
+    }
+}
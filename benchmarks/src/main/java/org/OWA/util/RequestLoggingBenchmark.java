@@ -0,0 +1,112 @@
+package org.OWA.util;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Стоимость логирования одного запроса generateOtp.
+ * before — прежняя схема: четыре INFO-строки синхронно пишутся в файл в потоке запроса.
+ * after — текущая: те же сообщения на уровне DEBUG (выключены) и выборочная строка журнала
+ * запросов (10%) через асинхронный appender с ограниченной очередью, как в logback.xml.
+ * Вывод идёт во временный файл, чтобы не смешиваться с выводом JMH.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RequestLoggingBenchmark {
+    private static final double ACCESS_SAMPLE_RATE = 0.1;
+
+    private LoggerContext context;
+    private Path syncFile;
+    private Path asyncFile;
+    private Logger syncLogger;
+    private Logger requestLogger;
+    private Logger accessLogger;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new LoggerContext();
+        syncFile = Files.createTempFile("request-logging-sync", ".log");
+        asyncFile = Files.createTempFile("request-logging-async", ".log");
+
+        syncLogger = context.getLogger("bench.sync");
+        syncLogger.setAdditive(false);
+        syncLogger.setLevel(Level.INFO);
+        syncLogger.addAppender(fileAppender("sync", syncFile));
+
+        AsyncAppender async = new AsyncAppender();
+        async.setContext(context);
+        async.setName("async");
+        async.setQueueSize(8192);
+        async.setNeverBlock(true);
+        async.addAppender(fileAppender("async-file", asyncFile));
+        async.start();
+
+        requestLogger = context.getLogger("bench.request");
+        requestLogger.setAdditive(false);
+        requestLogger.setLevel(Level.INFO);
+        requestLogger.addAppender(async);
+
+        accessLogger = context.getLogger("bench.access");
+        accessLogger.setAdditive(false);
+        accessLogger.setLevel(Level.INFO);
+        accessLogger.addAppender(async);
+    }
+
+    private Appender<ILoggingEvent> fileAppender(String name, Path file) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n");
+        encoder.start();
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(context);
+        appender.setName(name);
+        appender.setFile(file.toString());
+        appender.setEncoder(encoder);
+        appender.start();
+        return appender;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.stop();
+        Files.deleteIfExists(syncFile);
+        Files.deleteIfExists(asyncFile);
+    }
+
+    @Benchmark
+    public void before() {
+        syncLogger.info("Incoming request: {} {}", "POST", "/api/user/generateOtp");
+        syncLogger.info("OTP code saved for user {} operation {}", 42, "payment-7f3a9c21");
+        syncLogger.info("Generated OTP for user {} operation {}", 42, "payment-7f3a9c21");
+        syncLogger.info("OTP sent via SMS to {}", "benchmark_user");
+    }
+
+    @Benchmark
+    public void after() {
+        requestLogger.debug("Incoming request: {} {}", "POST", "/api/user/generateOtp");
+        requestLogger.debug("OTP code saved for user {} operation {}", 42, "payment-7f3a9c21");
+        requestLogger.debug("Generated OTP for user {} operation {}", 42, "payment-7f3a9c21");
+        requestLogger.debug("OTP sent via SMS to {}", "benchmark_user");
+        // То же решение о выборке, что в AccessLog.record
+        if (ThreadLocalRandom.current().nextDouble() < ACCESS_SAMPLE_RATE) {
+            accessLogger.info("{} {} {} {}", "POST", "/api/user/generateOtp", 200, 1830L);
+        }
+    }
+}
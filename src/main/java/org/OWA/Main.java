@@ -1,28 +1,40 @@
 package org.OWA;
 
-import com.sun.net.httpserver.HttpServer;
+import ch.qos.logback.classic.LoggerContext;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.OWA.controller.ApiHandler;
+import org.OWA.server.HttpEngine;
 import org.OWA.service.OtpService;
 import org.OWA.service.OtpExpiryScheduler;
+import org.OWA.util.AppConfig;
 import org.OWA.util.DatabaseConfig;
+import org.OWA.util.Metrics;
+import org.OWA.util.QueueTimingExecutor;
+import org.OWA.util.TransactionManager;
 import java.net.InetSocketAddress;
 import java.sql.Connection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public class Main {
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
     private static final int SERVER_PORT = Integer.parseInt(System.getenv().getOrDefault("SERVER_PORT", "8080"));
     private static final int THREAD_POOL_SIZE = Integer.parseInt(System.getenv().getOrDefault("THREAD_POOL_SIZE", "10"));
+    // fixed — пул платформенных потоков, virtual — виртуальный поток на каждый запрос (Java 21+)
+    private static final String EXECUTOR_MODE = System.getenv().getOrDefault("SERVER_EXECUTOR", "fixed");
     private static final int SHUTDOWN_TIMEOUT = Integer.parseInt(System.getenv().getOrDefault("SHUTDOWN_TIMEOUT_SECONDS", "3"));
     
-    private static HttpServer server;
+    private static HttpEngine server;
+    private static ExecutorService executor;
+    private static boolean virtualThreads;
     private static OtpExpiryScheduler scheduler;
+    private static OtpService otpService;
+    private static ApiHandler apiHandler;
 
     public static void main(String[] args) {
-        Connection apiConn = null;
-        Connection schedulerConn = null;
         try {
             // Инициализируем пул соединений и проверяем версию PostgreSQL
             try (Connection conn = DatabaseConfig.getConnection()) {
@@ -32,45 +44,72 @@ public class Main {
                 }
                 logger.info("Connected to PostgreSQL version {}", dbVersion);
             }
+            if (AppConfig.getBoolean("db.migrate.enabled", true)) {
+                DatabaseConfig.migrate();
+            }
+
+            executor = createExecutor();
+            registerMetrics();
+
+            // Каждый запрос берёт соединение из пула только на время своей транзакции.
+            // В режиме виртуальных потоков доступ к БД ограничен разрешениями по размеру пула.
+            TransactionManager tx = virtualThreads
+                ? new TransactionManager(DatabaseConfig.getDataSource(),
+                    DatabaseConfig.getPoolSize(), DatabaseConfig.getConnectionTimeoutMs())
+                : new TransactionManager(DatabaseConfig.getDataSource());
 
-            // Создаем подключение для API handler'а через пул соединений
-            apiConn = DatabaseConfig.getConnection();
-            
-            // Создаем и настраиваем HTTP сервер
-            server = HttpServer.create(new InetSocketAddress(SERVER_PORT), 0);
-            server.createContext("/api", new ApiHandler(apiConn));
-            server.setExecutor(Executors.newFixedThreadPool(THREAD_POOL_SIZE));
+            otpService = new OtpService(tx);
+
+            // Создаем и настраиваем HTTP сервер (server.engine: jdk или nio)
+            apiHandler = new ApiHandler(tx, otpService);
+            String engine = AppConfig.get("server.engine", "jdk");
+            server = HttpEngine.create(engine, new InetSocketAddress(SERVER_PORT), apiHandler, executor);
             server.start();
 
             // Запускаем планировщик для очистки устаревших OTP
-            schedulerConn = DatabaseConfig.getConnection();
-            scheduler = new OtpExpiryScheduler(
-                schedulerConn,
-                new OtpService(schedulerConn)
-            );
+            scheduler = new OtpExpiryScheduler(otpService);
 
             // Добавляем обработчик завершения
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                try {
-                    shutdown();
-                    if (apiConn != null && !apiConn.isClosed()) apiConn.close();
-                    if (schedulerConn != null && !schedulerConn.isClosed()) schedulerConn.close();
-                } catch (Exception e) {
-                    logger.error("Error during shutdown", e);
-                }
-            }));
+            Runtime.getRuntime().addShutdownHook(new Thread(Main::shutdown));
 
-            logger.info("Server started on port {}", SERVER_PORT);
+            logger.info("Server started on port {} ({} engine, {} executor)", SERVER_PORT, engine,
+                virtualThreads ? "virtual" : "fixed");
         } catch (Exception e) {
             logger.error("Failed to start server", e);
+            DatabaseConfig.closePool();
+            System.exit(1);
+        }
+    }
+
+    private static void registerMetrics() {
+        HikariPoolMXBean pool = DatabaseConfig.getPoolStats();
+        Metrics.gauge("otp_db_pool_connections", "Database pool connections by state", "state=\"active\"", pool::getActiveConnections);
+        Metrics.gauge("otp_db_pool_connections", "Database pool connections by state", "state=\"idle\"", pool::getIdleConnections);
+        Metrics.gauge("otp_db_pool_pending_threads", "Threads waiting for a database connection", "", pool::getThreadsAwaitingConnection);
+        if (executor instanceof ThreadPoolExecutor http) {
+            Metrics.gauge("otp_http_executor_queue_depth", "HTTP requests waiting for a worker thread", "", () -> http.getQueue().size());
+            Metrics.gauge("otp_http_executor_active_threads", "HTTP worker threads busy with a request", "", http::getActiveCount);
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        if ("virtual".equalsIgnoreCase(EXECUTOR_MODE)) {
             try {
-                if (apiConn != null && !apiConn.isClosed()) apiConn.close();
-                if (schedulerConn != null && !schedulerConn.isClosed()) schedulerConn.close();
-            } catch (Exception ex) {
-                logger.error("Error closing DB connections", ex);
+                // Вызываем через reflection, чтобы сборка оставалась совместимой с Java 17
+                ExecutorService virtual = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+                virtualThreads = true;
+                return virtual;
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Virtual threads require Java 21+, falling back to fixed pool of {} threads", THREAD_POOL_SIZE);
             }
-            System.exit(1);
+        } else if (!"fixed".equalsIgnoreCase(EXECUTOR_MODE)) {
+            logger.warn("Unknown SERVER_EXECUTOR '{}', using fixed pool", EXECUTOR_MODE);
         }
+        // Пул запоминает время постановки запроса в очередь: ожидание потока учитывается в задержке.
+        // Очередь ограничена, запросы сверх неё сразу получают 503
+        return new QueueTimingExecutor(THREAD_POOL_SIZE, AppConfig.getInt("server.queue.capacity", 100));
     }
 
     private static void shutdown() {
@@ -79,13 +118,26 @@ public class Main {
             if (server != null) {
                 server.stop(SHUTDOWN_TIMEOUT);
             }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            if (apiHandler != null) {
+                apiHandler.shutdown(SHUTDOWN_TIMEOUT * 1000L);
+            }
             if (scheduler != null) {
                 scheduler.shutdown();
             }
+            if (otpService != null) {
+                otpService.shutdown();
+            }
             DatabaseConfig.closePool();
             logger.info("Server shutdown complete");
         } catch (Exception e) {
             logger.error("Error during shutdown", e);
         }
+        // Дописываем накопленные в асинхронной очереди события лога
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext context) {
+            context.stop();
+        }
     }
 }
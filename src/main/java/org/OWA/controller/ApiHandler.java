@@ -2,53 +2,157 @@ package org.OWA.controller;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import org.OWA.service.AsyncNotificationService;
 import org.OWA.service.AuthService;
+import org.OWA.service.AdmissionRejectedException;
+import org.OWA.service.InstrumentedNotificationService;
+import org.OWA.service.NotificationQueueFullException;
+import org.OWA.service.NotificationService;
 import org.OWA.service.OtpService;
+import org.OWA.service.OtpThrottle;
 import org.OWA.service.FileNotificationService;
 import org.OWA.service.EmailNotificationService;
 import org.OWA.service.SmsNotificationService;
 import org.OWA.service.TelegramNotificationService;
+import org.OWA.util.AccessLog;
+import org.OWA.util.AdaptiveConcurrencyLimiter;
+import org.OWA.util.AppConfig;
+import org.OWA.util.Metrics;
+import org.OWA.util.QueueTimingExecutor;
+import org.OWA.util.RequestTrace;
 import org.OWA.util.JwtUtil;
+import org.OWA.util.TransactionManager;
 import org.OWA.model.User;
 import org.OWA.dao.UserDao;
-import org.OWA.dao.OtpConfigDao;
 import org.OWA.dao.OtpCodeDao;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.URI;
-import java.sql.Connection;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.sql.SQLException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import org.OWA.util.ValidationUtil;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class ApiHandler implements HttpHandler {
     private static final Logger logger = LoggerFactory.getLogger(ApiHandler.class);
     private final AuthService authService;
     private final OtpService otpService;
-    private final OtpConfigDao otpConfigDao;
+    private final OtpThrottle otpThrottle = new OtpThrottle();
     private final UserDao userDao;
     private final OtpCodeDao otpCodeDao;
-    private final FileNotificationService fileNotificationService;
-    private final EmailNotificationService emailNotificationService;
-    private final SmsNotificationService smsNotificationService;
-    private final TelegramNotificationService telegramNotificationService;
+    private final NotificationService fileNotificationService;
+    private final NotificationService emailNotificationService;
+    private final NotificationService smsNotificationService;
+    private final NotificationService telegramNotificationService;
+    private final List<AsyncNotificationService> dispatchers = new ArrayList<>();
+    private final List<NotificationService> channels = new ArrayList<>();
+    private final TransactionManager tx;
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    // Готовые reader/writer: конфигурация и сериализаторы не ищутся заново на каждый запрос
+    private static final ObjectReader BODY_MAP_READER = objectMapper.readerFor(new TypeReference<Map<String, String>>() {});
+    private static final ObjectReader OTP_REQUEST_READER = objectMapper.readerFor(OtpRequest.class)
+        .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final ObjectWriter RESPONSE_WRITER = objectMapper.writerFor(ApiResponse.class);
+    private static final int USER_PAGE_MAX = AppConfig.getInt("admin.users.page.max", 10_000);
+    private static final int USER_FETCH_SIZE = AppConfig.getInt("admin.users.fetch.size", 500);
+    private static final int USER_BUFFER_BYTES = AppConfig.getInt("admin.users.buffer.bytes", 262_144);
+    private static final List<String> ROUTES = List.of(
+        "/api/register", "/api/login", "/api/metrics",
+        "/api/admin/config", "/api/admin/users", "/api/admin/deleteUser",
+        "/api/user/generateOtp", "/api/user/generateOtpBatch", "/api/user/validateOtp");
+    private final Map<String, RouteMetrics> routeMetrics = new HashMap<>();
+    private final RouteMetrics otherRouteMetrics = new RouteMetrics("other");
+    private final boolean metricsEnabled = AppConfig.getBoolean("metrics.enabled", false);
+    // Отдельные адаптивные лимиты: медленный вход (BCrypt) не отнимает места у OTP и наоборот
+    private final boolean limitsEnabled = AppConfig.getBoolean("server.limit.enabled", true);
+    private final AdaptiveConcurrencyLimiter loginLimiter = newLimiter("login");
+    private final AdaptiveConcurrencyLimiter otpLimiter = newLimiter("otp");
+    private final AdaptiveConcurrencyLimiter adminLimiter = newLimiter("admin");
+    private final long maxQueueWaitNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("server.limit.max.queue.wait.ms", 2000));
+    private final Metrics.Timer queueWait = Metrics.timer("otp_http_queue_wait_seconds",
+        "Time requests waited for a worker thread", "");
+    private final LongAdder queueWaitRejected = Metrics.counter("otp_http_queue_wait_rejected_total",
+        "Requests rejected after waiting longer than server.limit.max.queue.wait.ms", "");
+    private final LongAdder queueFullRejected = Metrics.counter("otp_http_queue_full_rejected_total",
+        "Requests rejected because the worker pool queue was full", "");
 
-    public ApiHandler(Connection conn) {
-        this.authService = new AuthService(conn);
-        this.otpService = new OtpService(conn);
-        this.otpConfigDao = new OtpConfigDao(conn);
-        this.userDao = new UserDao(conn);
-        this.otpCodeDao = new OtpCodeDao(conn);
-        this.fileNotificationService = new FileNotificationService();
-        this.emailNotificationService = new EmailNotificationService();
-        this.smsNotificationService = new SmsNotificationService();
-        this.telegramNotificationService = new TelegramNotificationService();
+    /** Ответ в JSON для клиентов с Accept: application/json или JSON-телом запроса. */
+    private record ApiResponse(int status, String message) {}
+
+    /** Задержка и число ответов по кодам для одного маршрута; метка route ограничена списком ROUTES. */
+    private static final class RouteMetrics {
+        private final String labels;
+        private final Metrics.Timer latency;
+        private final Map<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+
+        RouteMetrics(String route) {
+            this.labels = "route=\"" + route + "\"";
+            this.latency = Metrics.timer("otp_http_request_duration_seconds", "HTTP request handling time by route", labels);
+        }
+
+        void record(int status, long nanos) {
+            latency.recordNanos(nanos);
+            responses.computeIfAbsent(status, code -> Metrics.counter("otp_http_responses_total",
+                "HTTP responses by route and status", labels + ",status=\"" + code + "\"")).increment();
+        }
+    }
+
+    public ApiHandler(TransactionManager tx, OtpService otpService) {
+        this.tx = tx;
+        this.authService = new AuthService(tx);
+        this.otpService = otpService;
+        this.userDao = new UserDao(tx);
+        this.otpCodeDao = new OtpCodeDao(tx);
+        this.fileNotificationService = dispatch("file", new FileNotificationService());
+        this.emailNotificationService = dispatch("email", new EmailNotificationService());
+        this.smsNotificationService = dispatch("sms", new SmsNotificationService());
+        this.telegramNotificationService = dispatch("telegram", new TelegramNotificationService());
+        for (String route : ROUTES) {
+            routeMetrics.put(route, new RouteMetrics(route));
+        }
+    }
+
+    private NotificationService dispatch(String channel, NotificationService provider) {
+        NotificationService service = new InstrumentedNotificationService(channel, provider);
+        if (!AppConfig.getBoolean("notify.async.enabled", true)) {
+            channels.add(service);
+            return service;
+        }
+        AsyncNotificationService dispatcher = new AsyncNotificationService(channel, service);
+        dispatchers.add(dispatcher);
+        channels.add(dispatcher);
+        return dispatcher;
+    }
+
+    public List<AsyncNotificationService> getDispatchers() {
+        return dispatchers;
+    }
+
+    /** Останавливает очереди доставки, дожидаясь отправки уже принятых кодов, и закрывает каналы. */
+    public void shutdown(long timeoutMs) {
+        for (NotificationService channel : channels) {
+            if (channel instanceof AsyncNotificationService dispatcher) {
+                dispatcher.shutdown(timeoutMs);
+            } else {
+                channel.shutdown();
+            }
+        }
+        authService.shutdown();
     }
 
     @Override
@@ -56,21 +160,96 @@ public class ApiHandler implements HttpHandler {
         URI uri = exchange.getRequestURI();
         String path = uri.getPath();
         String method = exchange.getRequestMethod();
-        logger.info("Incoming request: {} {}", method, path);
-
-        if (path.equals("/api/register") && method.equals("POST")) {
-            handleRegister(exchange);
-        } else if (path.equals("/api/login") && method.equals("POST")) {
-            handleLogin(exchange);
-        } else if (path.startsWith("/api/admin")) {
-            handleAdmin(exchange, path, method);
-        } else if (path.startsWith("/api/user")) {
-            handleUser(exchange, path, method);
-        } else {
-            sendResponse(exchange, 404, "Not found");
+        logger.debug("Incoming request: {} {}", method, path);
+
+        RouteMetrics metrics = routeMetrics.getOrDefault(path, otherRouteMetrics);
+        long start = System.nanoTime();
+        long enqueued = QueueTimingExecutor.enqueuedAt();
+        queueWait.recordNanos(start - enqueued);
+        AdaptiveConcurrencyLimiter limiter = limiterFor(path);
+        boolean admitted = false;
+        RequestTrace.begin(path);
+        try {
+            if (QueueTimingExecutor.isShed()) {
+                // Очередь пула заполнена, и мы в потоке приёма соединений: только короткий отказ
+                queueFullRejected.increment();
+                sendOverloaded(exchange);
+                return;
+            }
+            if (limiter != null) {
+                if (start - enqueued > maxQueueWaitNanos) {
+                    // Клиент, скорее всего, уже не ждёт ответа: не тратим на запрос ни БД, ни канал
+                    queueWaitRejected.increment();
+                    sendOverloaded(exchange);
+                    return;
+                }
+                if (!limiter.tryAcquire()) {
+                    sendOverloaded(exchange);
+                    return;
+                }
+                admitted = true;
+            }
+            if (path.equals("/api/register") && method.equals("POST")) {
+                handleRegister(exchange);
+            } else if (path.equals("/api/login") && method.equals("POST")) {
+                handleLogin(exchange);
+            } else if (path.equals("/api/metrics") && method.equals("GET") && metricsEnabled) {
+                handleMetrics(exchange);
+            } else if (path.startsWith("/api/admin")) {
+                handleAdmin(exchange, path, method);
+            } else if (path.startsWith("/api/user")) {
+                handleUser(exchange, path, method);
+            } else {
+                sendResponse(exchange, 404, "Not found");
+            }
+        } catch (RequestBodyException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            int status = exchange.getResponseCode();
+            if (admitted) {
+                limiter.release(enqueued, status >= 500);
+            }
+            metrics.record(status, elapsed);
+            RequestTrace.end(status);
+            AccessLog.record(method, path, status, elapsed);
         }
     }
 
+    private static AdaptiveConcurrencyLimiter newLimiter(String group) {
+        String prefix = "server.limit." + group;
+        return new AdaptiveConcurrencyLimiter(group,
+            AppConfig.getInt(prefix + ".initial", 20),
+            AppConfig.getInt(prefix + ".min", 2),
+            AppConfig.getInt(prefix + ".max", 200));
+    }
+
+    private AdaptiveConcurrencyLimiter limiterFor(String path) {
+        if (!limitsEnabled) {
+            return null;
+        }
+        if (path.equals("/api/login") || path.equals("/api/register")) {
+            return loginLimiter;
+        }
+        if (path.startsWith("/api/user")) {
+            return otpLimiter;
+        }
+        if (path.startsWith("/api/admin")) {
+            return adminLimiter;
+        }
+        return null;
+    }
+
+    private void sendOverloaded(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        sendResponse(exchange, 503, "Server overloaded, try again later");
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        sendBytes(exchange, 200, Metrics.scrape().getBytes(StandardCharsets.UTF_8));
+    }
+
     private void handleRegister(HttpExchange exchange) throws IOException {
         Map<String, String> params = parseBody(exchange);
         String username = params.get("username");
@@ -115,7 +294,7 @@ public class ApiHandler implements HttpHandler {
             return;
         }
         try {
-            boolean ok = authService.register(username, password, role, email);
+            boolean ok = authService.register(username, password, role, email, clientAddress(exchange));
             if (ok) {
                 logger.info("User registered: {}", username);
                 sendResponse(exchange, 200, "Registered");
@@ -125,6 +304,8 @@ public class ApiHandler implements HttpHandler {
             }
         } catch (IllegalArgumentException e) {
             sendResponse(exchange, 400, e.getMessage());
+        } catch (AdmissionRejectedException e) {
+            sendRejected(exchange, e);
         } catch (Exception e) {
             logger.error("Registration error", e);
             sendResponse(exchange, 500, "Error: " + e.getMessage());
@@ -140,14 +321,16 @@ public class ApiHandler implements HttpHandler {
             return;
         }
         try {
-            Optional<String> token = authService.login(username, password);
+            Optional<String> token = authService.login(username, password, clientAddress(exchange));
             if (token.isPresent()) {
-                logger.info("User logged in: {}", username);
+                logger.debug("User logged in: {}", username);
                 sendResponse(exchange, 200, token.get());
             } else {
                 logger.warn("Invalid login attempt: {}", username);
                 sendResponse(exchange, 401, "Invalid credentials");
             }
+        } catch (AdmissionRejectedException e) {
+            sendRejected(exchange, e);
         } catch (Exception e) {
             logger.error("Login error", e);
             sendResponse(exchange, 500, "Error: " + e.getMessage());
@@ -176,14 +359,11 @@ public class ApiHandler implements HttpHandler {
                     sendResponse(exchange, 400, "Invalid config values");
                     return;
                 }
-                otpConfigDao.updateConfig(codeLength, ttlSeconds);
+                otpService.updateConfig(codeLength, ttlSeconds);
                 logger.info("OTP config updated by admin");
-                sendResponse(exchange, 200, "Config updated");            } else if (path.equals("/api/admin/users") && method.equals("GET")) {
-                List<User> users = userDao.findAllNonAdmins();
-                String json = objectMapper.writeValueAsString(Map.of("users", users));
-                logger.info("Admin requested user list");
-                exchange.getResponseHeaders().set("Content-Type", "application/json");
-                sendResponse(exchange, 200, json);
+                sendResponse(exchange, 200, "Config updated");
+            } else if (path.equals("/api/admin/users") && method.equals("GET")) {
+                handleUserList(exchange);
             } else if (path.equals("/api/admin/deleteUser") && method.equals("POST")) {
                 Map<String, String> params = parseBody(exchange);
                 String username = params.get("username");
@@ -191,42 +371,122 @@ public class ApiHandler implements HttpHandler {
                     sendResponse(exchange, 400, "Missing username");
                     return;
                 }
-                Optional<User> delUser = userDao.findByUsername(username);
-                if (delUser.isPresent()) {
+                // Поиск, проверки и удаление — одна транзакция: строка пользователя заблокирована,
+                // и между проверкой роли и удалением её никто не изменит
+                User[] deleted = new User[1];
+                String refusal = tx.inTransaction(conn -> {
+                    Optional<User> delUser = userDao.findByUsernameForUpdate(username);
+                    if (delUser.isEmpty()) {
+                        logger.warn("Attempt to delete non-existent user: {}", username);
+                        return "User not found or is admin";
+                    }
                     if ("ADMIN".equalsIgnoreCase(delUser.get().getRole())) {
-                        sendResponse(exchange, 400, "Cannot delete admin");
-                        return;
+                        return "Cannot delete admin";
                     }
                     // Запретить удалять самого себя
                     if (user.get().getUsername().equalsIgnoreCase(username)) {
-                        sendResponse(exchange, 400, "Cannot delete yourself");
-                        return;
+                        return "Cannot delete yourself";
                     }
                     otpCodeDao.deleteByUserId(delUser.get().getId());
                     userDao.deleteById(delUser.get().getId());
-                    logger.info("User deleted by admin: {}", username);
-                    sendResponse(exchange, 200, "User deleted");
-                } else {
-                    logger.warn("Attempt to delete non-existent user: {}", username);
-                    sendResponse(exchange, 400, "User not found or is admin");
+                    deleted[0] = delUser.get();
+                    return null;
+                });
+                if (refusal != null) {
+                    sendResponse(exchange, 400, refusal);
+                    return;
                 }
+                otpService.evictUser(deleted[0].getId());
+                authService.evictUser(deleted[0].getUsername());
+                logger.info("User deleted by admin: {}", username);
+                sendResponse(exchange, 200, "User deleted");
             } else {
                 sendResponse(exchange, 404, "Admin endpoint not found");
             }
+        } catch (RequestBodyException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
+        } catch (ResponseAbortedException e) {
+            throw e;
         } catch (Exception e) {
             logger.error("Admin API error", e);
             sendResponse(exchange, 500, "Error: " + e.getMessage());
         }
     }
 
+    /**
+     * Список не-админов: GET /api/admin/users?after_id=N&amp;limit=M. Строки читаются из БД курсором
+     * и пишутся JsonGenerator в тело ответа. До admin.users.buffer.bytes ответ копится в памяти
+     * и отправляется после закрытия курсора, больший уходит клиенту chunked-потоком по ходу чтения.
+     * Без limit отдаются все пользователи; next_after_id — id для следующей страницы или null.
+     */
+    private void handleUserList(HttpExchange exchange) throws IOException {
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        Map<String, String> query = parseForm(rawQuery == null ? "" : rawQuery);
+        int afterId;
+        int limit;
+        try {
+            afterId = Integer.parseInt(query.getOrDefault("after_id", "0"));
+            limit = Integer.parseInt(query.getOrDefault("limit", "0"));
+        } catch (NumberFormatException e) {
+            sendResponse(exchange, 400, "after_id and limit must be integers");
+            return;
+        }
+        if (afterId < 0 || limit < 0 || limit > USER_PAGE_MAX) {
+            sendResponse(exchange, 400, "Invalid after_id or limit (max " + USER_PAGE_MAX + ")");
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        SpillingResponseStream out = new SpillingResponseStream(exchange, USER_BUFFER_BYTES);
+        // Без AUTO_CLOSE_JSON_CONTENT генератор при ошибке не допишет закрывающие скобки
+        // и оборванный список не превратится в корректный, но неполный JSON
+        JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        int rows;
+        try {
+            gen.writeStartObject();
+            gen.writeArrayFieldStart("users");
+            int[] lastId = {afterId};
+            rows = userDao.streamNonAdmins(afterId, limit, USER_FETCH_SIZE, u -> {
+                gen.writeStartObject();
+                gen.writeNumberField("id", u.getId());
+                gen.writeStringField("username", u.getUsername());
+                gen.writeStringField("role", u.getRole());
+                gen.writeStringField("email", u.getEmail());
+                gen.writeEndObject();
+                lastId[0] = u.getId();
+            });
+            gen.writeEndArray();
+            if (limit > 0 && rows == limit) {
+                gen.writeNumberField("next_after_id", lastId[0]);
+            } else {
+                gen.writeNullField("next_after_id");
+            }
+            gen.writeEndObject();
+            gen.flush();
+        } catch (SQLException | UncheckedIOException e) {
+            logger.error("Admin user list streaming failed", e);
+            if (!out.isCommitted()) {
+                sendResponse(exchange, 500, "Internal server error");
+                return;
+            }
+            // Заголовки уже отправлены: тело не закрываем, чтобы не ушёл завершающий chunk.
+            // Исключение из обработчика заставляет движок разорвать соединение — клиент увидит
+            // оборванный ответ, а не успешный
+            throw new ResponseAbortedException("Admin user list aborted after headers were sent", e);
+        }
+        out.close();
+        logger.debug("Admin user list streamed: {} users", rows);
+    }
+
     private void handleUser(HttpExchange exchange, String path, String method) throws IOException {
         Optional<User> user = authenticate(exchange, "USER_OR_ADMIN");
         if (user.isEmpty()) return;
         try {
             if (path.equals("/api/user/generateOtp") && method.equals("POST")) {
-                Map<String, String> params = parseBody(exchange);
-                String operationId = params.get("operationId");
-                String channel = params.get("channel");
+                OtpRequest request = parseOtpRequest(exchange);
+                String operationId = request.operationId;
+                String channel = request.channel;
                 if (operationId == null || operationId.isBlank() || channel == null || channel.isBlank()) {
                     sendResponse(exchange, 400, "Missing operationId or channel");
                     return;
@@ -235,56 +495,66 @@ public class ApiHandler implements HttpHandler {
                     sendResponse(exchange, 400, "Invalid operationId length");
                     return;
                 }
-                if (!List.of("file", "email", "sms", "telegram").contains(channel.toLowerCase())) {
-                    sendResponse(exchange, 400, "Unknown channel");
+                NotificationService service = configuredChannel(exchange, channel);
+                if (service == null) return;
+                String destination = "email".equalsIgnoreCase(channel) ? user.get().getEmail() : user.get().getUsername();
+                if (destination == null || destination.isBlank()) {
+                    logger.warn("No email for user {}", user.get().getUsername());
+                    sendResponse(exchange, 400, "No email for user");
+                    return;
+                }
+                // Лимит расходуется только запросом, который дальше уже не отклоняется проверками
+                long retryNanos = otpThrottle.acquire(user.get().getId(), operationId, channel.toLowerCase());
+                if (retryNanos > 0) {
+                    sendThrottled(exchange, retryNanos);
                     return;
                 }
                 String code = otpService.generateOtp(user.get().getId(), operationId);
-                if ("file".equalsIgnoreCase(channel)) {
-                    if (!fileNotificationService.isConfigured()) {
-                        sendResponse(exchange, 500, "File service not configured");
-                        return;
-                    }
-                    fileNotificationService.sendCode(user.get().getUsername(), code);
-                    logger.info("OTP saved to file for user {}", user.get().getUsername());
-                    sendResponse(exchange, 200, "OTP saved to file");
-                } else if ("email".equalsIgnoreCase(channel)) {
-                    if (!emailNotificationService.isConfigured()) {
-                        sendResponse(exchange, 500, "Email service not configured");
-                        return;
-                    }
-                    if (user.get().getEmail() == null || user.get().getEmail().isBlank()) {
-                        logger.warn("No email for user {}", user.get().getUsername());
-                        sendResponse(exchange, 400, "No email for user");
-                        return;
-                    }
-                    emailNotificationService.sendCode(user.get().getEmail(), code);
-                    logger.info("OTP sent via email to {}", user.get().getEmail());
-                    sendResponse(exchange, 200, "OTP sent via email");
-                } else if ("sms".equalsIgnoreCase(channel)) {
-                    if (!smsNotificationService.isConfigured()) {
-                        sendResponse(exchange, 500, "SMS service not configured");
-                        return;
-                    }
-                    smsNotificationService.sendCode(user.get().getUsername(), code);
-                    logger.info("OTP sent via SMS to {}", user.get().getUsername());
-                    sendResponse(exchange, 200, "OTP sent via SMS");
-                } else if ("telegram".equalsIgnoreCase(channel)) {
-                    if (!telegramNotificationService.isConfigured()) {
-                        sendResponse(exchange, 500, "Telegram service not configured");
+                service.sendCode(destination, code);
+                logger.debug("OTP sent via {} to {}", channel.toLowerCase(), destination);
+                sendResponse(exchange, 200, deliveredMessage(channel));
+            } else if (path.equals("/api/user/generateOtpBatch") && method.equals("POST")) {
+                Map<String, String> params = parseBody(exchange);
+                String operationIds = params.get("operationIds");
+                String channel = params.get("channel");
+                if (operationIds == null || operationIds.isBlank() || channel == null || channel.isBlank()) {
+                    sendResponse(exchange, 400, "Missing operationIds or channel");
+                    return;
+                }
+                NotificationService service = configuredChannel(exchange, channel);
+                if (service == null) return;
+                String destination = "email".equalsIgnoreCase(channel) ? user.get().getEmail() : user.get().getUsername();
+                if (destination == null || destination.isBlank()) {
+                    logger.warn("No email for user {}", user.get().getUsername());
+                    sendResponse(exchange, 400, "No email for user");
+                    return;
+                }
+                List<String> ids = new ArrayList<>();
+                for (String id : operationIds.split(",")) {
+                    ids.add(id.trim());
+                }
+                Map<String, String> codes;
+                try {
+                    otpService.validateBatch(ids);
+                    long retryNanos = otpThrottle.acquireBatch(user.get().getId(), ids, channel.toLowerCase());
+                    if (retryNanos > 0) {
+                        sendThrottled(exchange, retryNanos);
                         return;
                     }
-                    telegramNotificationService.sendCode(user.get().getUsername(), code);
-                    logger.info("OTP sent via Telegram to {}", user.get().getUsername());
-                    sendResponse(exchange, 200, "OTP sent via Telegram");
-                } else {
-                    logger.warn("Unknown channel: {}", channel);
-                    sendResponse(exchange, 400, "Unknown channel");
+                    codes = otpService.generateOtpBatch(user.get().getId(), ids);
+                } catch (IllegalArgumentException e) {
+                    sendResponse(exchange, 400, e.getMessage());
+                    return;
                 }
+                // При асинхронной доставке пакет ставится в очередь канала одной задачей:
+                // при заполненной очереди 503 означает, что не отправлен ни один код
+                service.sendCodes(destination, codes.values());
+                logger.debug("OTP batch of {} sent via {} for user {}", codes.size(), channel, user.get().getUsername());
+                sendResponse(exchange, 200, "OTP batch generated: " + codes.size() + " codes sent via " + channel.toLowerCase());
             } else if (path.equals("/api/user/validateOtp") && method.equals("POST")) {
-                Map<String, String> params = parseBody(exchange);
-                String operationId = params.get("operationId");
-                String code = params.get("code");
+                OtpRequest request = parseOtpRequest(exchange);
+                String operationId = request.operationId;
+                String code = request.code;
                 if (operationId == null || operationId.isBlank() || code == null || code.isBlank()) {
                     sendResponse(exchange, 400, "Missing operationId or code");
                     return;
@@ -299,7 +569,7 @@ public class ApiHandler implements HttpHandler {
                 }
                 boolean valid = otpService.validateOtp(user.get().getId(), operationId, code);
                 if (valid) {
-                    logger.info("OTP validated for user {}", user.get().getUsername());
+                    logger.debug("OTP validated for user {}", user.get().getUsername());
                     sendResponse(exchange, 200, "OTP valid");
                 } else {
                     logger.warn("OTP invalid or expired for user {}", user.get().getUsername());
@@ -308,12 +578,89 @@ public class ApiHandler implements HttpHandler {
             } else {
                 sendResponse(exchange, 404, "User endpoint not found");
             }
+        } catch (NotificationQueueFullException e) {
+            logger.warn("Notification dispatch overloaded: {}", e.getMessage());
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendResponse(exchange, 503, "Notification channel busy, try again later");
+        } catch (RequestBodyException e) {
+            sendResponse(exchange, e.getStatus(), e.getMessage());
         } catch (Exception e) {
             logger.error("User API error", e);
             sendResponse(exchange, 500, "Error: " + e.getMessage());
         }
     }
 
+    /**
+     * Сервис канала доставки для маршрутов генерации. Если канал неизвестен (400)
+     * или не настроен (500), отправляет ответ и возвращает null.
+     */
+    private NotificationService configuredChannel(HttpExchange exchange, String channel) throws IOException {
+        NotificationService service = channelService(channel);
+        if (service == null) {
+            sendResponse(exchange, 400, "Unknown channel");
+            return null;
+        }
+        if (!service.isConfigured()) {
+            sendResponse(exchange, 500, channelLabel(channel) + " service not configured");
+            return null;
+        }
+        return service;
+    }
+
+    private NotificationService channelService(String channel) {
+        switch (channel.toLowerCase()) {
+            case "file": return fileNotificationService;
+            case "email": return emailNotificationService;
+            case "sms": return smsNotificationService;
+            case "telegram": return telegramNotificationService;
+            default: return null;
+        }
+    }
+
+    private static String channelLabel(String channel) {
+        switch (channel.toLowerCase()) {
+            case "file": return "File";
+            case "email": return "Email";
+            case "sms": return "SMS";
+            case "telegram": return "Telegram";
+            default: return channel;
+        }
+    }
+
+    private static String deliveredMessage(String channel) {
+        switch (channel.toLowerCase()) {
+            case "file": return "OTP saved to file";
+            case "email": return "OTP sent via email";
+            case "sms": return "OTP sent via SMS";
+            case "telegram": return "OTP sent via Telegram";
+            default: return "OTP sent";
+        }
+    }
+
+    private static String clientAddress(HttpExchange exchange) {
+        InetSocketAddress remote = exchange.getRemoteAddress();
+        return remote == null || remote.getAddress() == null ? null : remote.getAddress().getHostAddress();
+    }
+
+    /** 503 — общая очередь хеширования заполнена, 429 — превышен лимит для пользователя или адреса. */
+    private void sendRejected(HttpExchange exchange, AdmissionRejectedException e) throws IOException {
+        logger.warn("Request rejected by admission control: {}", e.getMessage());
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        if (e.getReason() == AdmissionRejectedException.Reason.QUEUE_FULL) {
+            sendResponse(exchange, 503, "Server busy, try again later");
+        } else {
+            sendResponse(exchange, 429, "Too many concurrent requests");
+        }
+    }
+
+    /** 429 до обращения к БД и каналу; Retry-After — целые секунды до появления токена. */
+    private void sendThrottled(HttpExchange exchange, long retryNanos) throws IOException {
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(retryNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        logger.debug("OTP generation throttled, retry in {} s", seconds);
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(seconds));
+        sendResponse(exchange, 429, "Too many OTP requests, retry in " + seconds + " s");
+    }
+
     private Optional<User> authenticate(HttpExchange exchange, String requiredRole) throws IOException {
         List<String> authHeaders = exchange.getRequestHeaders().get("Authorization");
         if (authHeaders == null || authHeaders.isEmpty()) {
@@ -326,11 +673,13 @@ public class ApiHandler implements HttpHandler {
             return Optional.empty();
         }
         try {
-            if (JwtUtil.isTokenExpired(token)) {
+            Claims claims;
+            try {
+                claims = RequestTrace.stage("auth.jwt", () -> JwtUtil.verify(token));
+            } catch (ExpiredJwtException e) {
                 sendResponse(exchange, 401, "Token expired");
                 return Optional.empty();
             }
-            Claims claims = JwtUtil.parseToken(token).getBody();
             String username = claims.getSubject();
             String role = (String) claims.get("role");
             if ("ADMIN".equalsIgnoreCase(requiredRole) && !"ADMIN".equalsIgnoreCase(role)) {
@@ -346,7 +695,7 @@ public class ApiHandler implements HttpHandler {
                 sendResponse(exchange, 403, "Forbidden");
                 return Optional.empty();
             }
-            Optional<User> user = userDao.findByUsername(username);
+            Optional<User> user = RequestTrace.stage("auth.user", () -> authService.getUser(username));
             if (user.isEmpty()) {
                 sendResponse(exchange, 401, "User not found");
                 return Optional.empty();
@@ -357,40 +706,72 @@ public class ApiHandler implements HttpHandler {
             sendResponse(exchange, 401, "Invalid token");
             return Optional.empty();
         }
-    }    private Map<String, String> parseBody(HttpExchange exchange) throws IOException {
-        Map<String, String> map = new HashMap<>();
-        
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
-            
-            StringBuilder body = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                body.append(line);
+    }
+
+    /** Все поля тела (форма или JSON-объект) — для маршрутов с редкими запросами. */
+    private Map<String, String> parseBody(HttpExchange exchange) throws IOException {
+        return RequestTrace.stage("http.parse_body", () -> {
+            if (RequestDecoder.isJson(exchange)) {
+                return RequestDecoder.decode(exchange, (body, length) ->
+                    length == 0 ? Map.of() : BODY_MAP_READER.readValue(body, 0, length));
             }
-            
-            String bodyStr = body.toString();
-            if (!bodyStr.isEmpty()) {
-                for (String pair : bodyStr.split("&")) {
-                    String[] kv = pair.split("=", 2);
-                    if (kv.length == 2) {
-                        String key = URLDecoder.decode(kv[0], StandardCharsets.UTF_8);
-                        String value = URLDecoder.decode(kv[1], StandardCharsets.UTF_8);
-                        map.put(key, value);
-                    }
+            return RequestDecoder.decode(exchange, RequestDecoder::decodeForm);
+        });
+    }
+
+    /** Только поля OtpRequest: остальные поля формы не декодируются. */
+    private OtpRequest parseOtpRequest(HttpExchange exchange) throws IOException {
+        return RequestTrace.stage("http.parse_body", () -> {
+            if (RequestDecoder.isJson(exchange)) {
+                return RequestDecoder.decode(exchange, (body, length) ->
+                    length == 0 ? new OtpRequest() : OTP_REQUEST_READER.readValue(body, 0, length));
+            }
+            return RequestDecoder.decode(exchange, (body, length) -> {
+                String[] values = new String[OtpRequest.FIELDS.length];
+                RequestDecoder.decodeForm(body, length, OtpRequest.FIELDS, values);
+                return OtpRequest.of(values);
+            });
+        });
+    }
+
+    static Map<String, String> parseForm(String body) {
+        Map<String, String> map = new HashMap<>();
+        if (!body.isEmpty()) {
+            for (String pair : body.split("&")) {
+                String[] kv = pair.split("=", 2);
+                if (kv.length == 2) {
+                    String key = URLDecoder.decode(kv[0], StandardCharsets.UTF_8);
+                    String value = URLDecoder.decode(kv[1], StandardCharsets.UTF_8);
+                    map.put(key, value);
                 }
             }
         }
-        
         return map;
     }
 
     private void sendResponse(HttpExchange exchange, int code, String msg) throws IOException {
-        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
-        exchange.sendResponseHeaders(code, bytes.length);
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(bytes);
+        byte[] bytes;
+        if (wantsJson(exchange)) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            bytes = RESPONSE_WRITER.writeValueAsBytes(new ApiResponse(code, msg));
+        } else {
+            bytes = msg.getBytes(StandardCharsets.UTF_8);
         }
+        sendBytes(exchange, code, bytes);
         logger.debug("Response {}: {}", code, msg);
     }
+
+    private static boolean wantsJson(HttpExchange exchange) {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return accept != null && accept.contains("application/json") || RequestDecoder.isJson(exchange);
+    }
+
+    private static void sendBytes(HttpExchange exchange, int code, byte[] bytes) throws IOException {
+        RequestTrace.run("http.write", () -> {
+            try (OutputStream os = exchange.getResponseBody()) {
+                exchange.sendResponseHeaders(code, bytes.length);
+                os.write(bytes);
+            }
+        });
+    }
 }
@@ -0,0 +1,21 @@
+package org.OWA.controller;
+
+/**
+ * Тело /api/user/generateOtp и /api/user/validateOtp. Из формы заполняется RequestDecoder по FIELDS,
+ * из JSON — ObjectReader по публичным полям; остальные поля тела игнорируются.
+ */
+final class OtpRequest {
+    static final String[] FIELDS = {"operationId", "channel", "code"};
+
+    public String operationId;
+    public String channel;
+    public String code;
+
+    static OtpRequest of(String[] values) {
+        OtpRequest request = new OtpRequest();
+        request.operationId = values[0];
+        request.channel = values[1];
+        request.code = values[2];
+        return request;
+    }
+}
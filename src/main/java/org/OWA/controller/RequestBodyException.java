@@ -0,0 +1,24 @@
+package org.OWA.controller;
+
+import java.io.IOException;
+
+/** Тело запроса не удалось принять: слишком большое (413) или некорректное (400). */
+class RequestBodyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    RequestBodyException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    RequestBodyException(int status, String message, Throwable cause) {
+        super(message, cause);
+        this.status = status;
+    }
+
+    int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,192 @@
+package org.OWA.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.sun.net.httpserver.HttpExchange;
+import org.OWA.util.AppConfig;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Разбор тела запроса без промежуточных строк.
+ *
+ * Тело читается в байтовый буфер из пула (буфер растёт до http.body.max.bytes, большее тело — 413).
+ * Имена полей x-www-form-urlencoded сравниваются с известными прямо в байтах, в строки превращаются
+ * только значения нужных полей: ASCII без %-последовательностей — одним копированием,
+ * остальное декодируется на месте в том же буфере. JSON-тело разбирает переданный ObjectReader.
+ */
+final class RequestDecoder {
+    static final int MAX_BODY_BYTES = AppConfig.getInt("http.body.max.bytes", 16_384);
+    private static final int INITIAL_BUFFER_BYTES = 1024;
+    // Буферов в пуле не больше, чем одновременно разбираемых запросов
+    private static final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    /** Разбор прочитанного тела; буфер действителен только во время вызова. */
+    interface BodyParser<T> {
+        T parse(byte[] body, int length) throws IOException;
+    }
+
+    private RequestDecoder() {}
+
+    static boolean isJson(HttpExchange exchange) {
+        String type = exchange.getRequestHeaders().getFirst("Content-Type");
+        return type != null && type.regionMatches(true, 0, "application/json", 0, 16);
+    }
+
+    /** Читает тело запроса в буфер из пула и разбирает его; ошибки разбора — RequestBodyException(400). */
+    static <T> T decode(HttpExchange exchange, BodyParser<T> parser) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null && parseLength(contentLength) > MAX_BODY_BYTES) {
+            throw tooLarge();
+        }
+        byte[] buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = new byte[INITIAL_BUFFER_BYTES];
+        }
+        try {
+            InputStream in = exchange.getRequestBody();
+            int length = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    if (length == MAX_BODY_BYTES) {
+                        if (in.read() < 0) {
+                            break;
+                        }
+                        throw tooLarge();
+                    }
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_BODY_BYTES));
+                }
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            return parser.parse(buffer, length);
+        } catch (JsonProcessingException e) {
+            throw new RequestBodyException(400, "Malformed JSON body", e);
+        } catch (IllegalArgumentException e) {
+            throw new RequestBodyException(400, "Malformed form body", e);
+        } finally {
+            buffers.offer(buffer);
+        }
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static RequestBodyException tooLarge() {
+        return new RequestBodyException(413, "Request body too large (max " + MAX_BODY_BYTES + " bytes)");
+    }
+
+    /** Значения известных полей формы в values по индексу имени в fields; при повторе побеждает последнее. */
+    static void decodeForm(byte[] body, int length, String[] fields, String[] values) {
+        int pos = 0;
+        while (pos < length) {
+            int end = indexOf(body, (byte) '&', pos, length);
+            int eq = indexOf(body, (byte) '=', pos, end);
+            if (eq < end) {
+                int field = fieldIndex(body, pos, eq, fields);
+                if (field >= 0) {
+                    values[field] = decodeValue(body, eq + 1, end);
+                }
+            }
+            pos = end + 1;
+        }
+    }
+
+    /** Все поля формы; для запросов, где набор полей не фиксирован. */
+    static Map<String, String> decodeForm(byte[] body, int length) {
+        Map<String, String> map = new HashMap<>();
+        int pos = 0;
+        while (pos < length) {
+            int end = indexOf(body, (byte) '&', pos, length);
+            int eq = indexOf(body, (byte) '=', pos, end);
+            if (eq < end) {
+                String key = decodeValue(body, pos, eq);
+                map.put(key, decodeValue(body, eq + 1, end));
+            }
+            pos = end + 1;
+        }
+        return map;
+    }
+
+    private static int indexOf(byte[] body, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (body[i] == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static int fieldIndex(byte[] body, int from, int to, String[] fields) {
+        for (int i = from; i < to; i++) {
+            if (body[i] == '%' || body[i] == '+') {
+                // Закодированное имя встречается редко: декодируем его целиком
+                String name = decodeValue(body, from, to);
+                return Arrays.asList(fields).indexOf(name);
+            }
+        }
+        for (int f = 0; f < fields.length; f++) {
+            String field = fields[f];
+            if (field.length() != to - from) {
+                continue;
+            }
+            int i = 0;
+            while (i < field.length() && body[from + i] == field.charAt(i)) {
+                i++;
+            }
+            if (i == field.length()) {
+                return f;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Значение в [from, to): '+' — пробел, %XX — байт, затем UTF-8. Декодирование идёт на месте,
+     * результат никогда не длиннее исходных байтов.
+     */
+    private static String decodeValue(byte[] body, int from, int to) {
+        boolean plain = true;
+        for (int i = from; i < to && plain; i++) {
+            byte b = body[i];
+            plain = b != '%' && b != '+' && b >= 0;
+        }
+        if (plain) {
+            return new String(body, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        int out = from;
+        for (int i = from; i < to; i++) {
+            byte b = body[i];
+            if (b == '+') {
+                body[out++] = ' ';
+            } else if (b == '%') {
+                if (i + 2 >= to) {
+                    throw new IllegalArgumentException("Incomplete escape sequence");
+                }
+                int hi = Character.digit(body[i + 1], 16);
+                int lo = Character.digit(body[i + 2], 16);
+                if (hi < 0 || lo < 0) {
+                    throw new IllegalArgumentException("Illegal hex characters in escape sequence");
+                }
+                body[out++] = (byte) ((hi << 4) | lo);
+                i += 2;
+            } else {
+                body[out++] = b;
+            }
+        }
+        return new String(body, from, out - from, StandardCharsets.UTF_8);
+    }
+}
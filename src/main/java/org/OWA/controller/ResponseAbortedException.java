@@ -0,0 +1,15 @@
+package org.OWA.controller;
+
+import java.io.IOException;
+
+/**
+ * Ответ оборван после отправки заголовков. Не перехватывается обработчиками маршрутов:
+ * HTTP-движок, получив исключение, разрывает соединение без завершающего chunk.
+ */
+class ResponseAbortedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    ResponseAbortedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
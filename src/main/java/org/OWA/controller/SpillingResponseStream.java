@@ -0,0 +1,67 @@
+package org.OWA.controller;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Тело ответа 200, которое копится в памяти, пока не превысит limit байт, и лишь затем
+ * уходит клиенту chunked-потоком. Небольшой ответ целиком собирается до отправки: курсор БД
+ * не ждёт медленного клиента, а ошибку ещё можно вернуть кодом 500 (см. isCommitted).
+ */
+final class SpillingResponseStream extends OutputStream {
+    private final HttpExchange exchange;
+    private final int limit;
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream body;
+
+    SpillingResponseStream(HttpExchange exchange, int limit) {
+        this.exchange = exchange;
+        this.limit = limit;
+    }
+
+    /** true, если заголовки и часть тела уже отправлены клиенту. */
+    boolean isCommitted() {
+        return body != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (body == null && buffer.size() + len > limit) {
+            exchange.sendResponseHeaders(200, 0);
+            body = exchange.getResponseBody();
+            buffer.writeTo(body);
+            buffer = null;
+        }
+        if (body != null) {
+            body.write(b, off, len);
+        } else {
+            buffer.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (body != null) {
+            body.flush();
+        }
+    }
+
+    /** Завершает ответ: отправляет накопленное тело целиком или закрывает chunked-поток. */
+    @Override
+    public void close() throws IOException {
+        if (body == null) {
+            byte[] bytes = buffer.toByteArray();
+            exchange.sendResponseHeaders(200, bytes.length == 0 ? -1 : bytes.length);
+            body = exchange.getResponseBody();
+            body.write(bytes);
+        }
+        body.close();
+    }
+}
@@ -1,83 +1,247 @@
 package org.OWA.dao;
 
 import org.OWA.model.OtpCode;
+import org.OWA.util.RequestTrace;
+import org.OWA.util.TransactionManager;
 import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OtpCodeDao {
     private static final Logger logger = LoggerFactory.getLogger(OtpCodeDao.class);
-    private final Connection conn;
+    // Ограничение PostgreSQL — 65535 параметров на запрос, у каждой строки их 6
+    private static final int BATCH_ROWS = 1000;
+    // ttlSeconds не больше 3600, так что активный код моложе двух часов (с запасом на отложенную
+    // запись статусов). Нижняя граница created_at отсекает старые секции таблицы.
+    private static final Duration ACTIVE_WINDOW = Duration.ofHours(2);
+    private static final String UNIQUE_VIOLATION = "23505";
+    private final TransactionManager tx;
 
-    public OtpCodeDao(Connection conn) {
-        this.conn = conn;
+    public OtpCodeDao(TransactionManager tx) {
+        this.tx = tx;
     }
 
-    public void save(OtpCode code) throws SQLException {
+    /**
+     * Сохраняет код и возвращает сгенерированный id. Прежний активный код той же операции
+     * в той же транзакции помечается EXPIRED, чтобы не нарушить уникальность активного кода.
+     * Одновременная генерация для той же операции повторяется один раз (см. insertActive).
+     */
+    public int save(OtpCode code) throws SQLException {
         String sql = "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at, expires_at) VALUES (?, ?, ?, ?, ?, ?)";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, code.getUserId());
-            ps.setString(2, code.getOperationId());
-            ps.setString(3, code.getCode());
-            ps.setString(4, code.getStatus());
-            ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
-            ps.setTimestamp(6, Timestamp.valueOf(code.getExpiresAt()));
-            ps.executeUpdate();
-            logger.info("OTP code saved for user {} operation {}", code.getUserId(), code.getOperationId());
+        try {
+            int id = RequestTrace.stage("db.otp_insert", () -> insertActive(conn -> {
+                expireActive(conn, code.getUserId(), List.of(code.getOperationId()));
+                try (PreparedStatement ps = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    ps.setInt(1, code.getUserId());
+                    ps.setString(2, code.getOperationId());
+                    ps.setString(3, code.getCode());
+                    ps.setString(4, code.getStatus());
+                    ps.setTimestamp(5, Timestamp.valueOf(code.getCreatedAt()));
+                    ps.setTimestamp(6, Timestamp.valueOf(code.getExpiresAt()));
+                    ps.executeUpdate();
+                    ResultSet keys = ps.getGeneratedKeys();
+                    if (!keys.next()) {
+                        throw new SQLException("No id generated for OTP code");
+                    }
+                    return keys.getInt(1);
+                }
+            }));
+            logger.debug("OTP code saved for user {} operation {}", code.getUserId(), code.getOperationId());
+            return id;
         } catch (SQLException e) {
             logger.error("Error saving OTP code", e);
             throw e;
         }
     }
 
-    public Optional<OtpCode> findActiveByUserAndOp(int userId, String opId) throws SQLException {
-        String sql = "SELECT * FROM otp_codes WHERE user_id = ? AND operation_id = ? AND status = 'ACTIVE'";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, userId);
-            ps.setString(2, opId);
-            ResultSet rs = ps.executeQuery();
-            if (rs.next()) {
-                logger.debug("Active OTP found for user {} operation {}", userId, opId);
-                return Optional.of(map(rs));
-            }
-            logger.debug("No active OTP for user {} operation {}", userId, opId);
+    /**
+     * Сохраняет коды многострочными INSERT ... RETURNING id в одной транзакции
+     * (до BATCH_ROWS строк на запрос) и возвращает id в порядке входного списка.
+     */
+    public List<Integer> saveAll(List<OtpCode> codes) throws SQLException {
+        if (codes.isEmpty()) {
+            return List.of();
+        }
+        try {
+            List<Integer> ids = RequestTrace.stage("db.otp_insert_batch", () -> insertActive(conn -> {
+                Map<Integer, List<String>> operationsByUser = new HashMap<>();
+                for (OtpCode code : codes) {
+                    operationsByUser.computeIfAbsent(code.getUserId(), u -> new ArrayList<>()).add(code.getOperationId());
+                }
+                for (Map.Entry<Integer, List<String>> e : operationsByUser.entrySet()) {
+                    expireActive(conn, e.getKey(), e.getValue());
+                }
+                List<Integer> result = new ArrayList<>(codes.size());
+                for (int from = 0; from < codes.size(); from += BATCH_ROWS) {
+                    List<OtpCode> chunk = codes.subList(from, Math.min(from + BATCH_ROWS, codes.size()));
+                    try (PreparedStatement ps = conn.prepareStatement(multiRowInsert(chunk.size()))) {
+                        int i = 1;
+                        for (OtpCode code : chunk) {
+                            ps.setInt(i++, code.getUserId());
+                            ps.setString(i++, code.getOperationId());
+                            ps.setString(i++, code.getCode());
+                            ps.setString(i++, code.getStatus());
+                            ps.setTimestamp(i++, Timestamp.valueOf(code.getCreatedAt()));
+                            ps.setTimestamp(i++, Timestamp.valueOf(code.getExpiresAt()));
+                        }
+                        ResultSet rs = ps.executeQuery();
+                        while (rs.next()) {
+                            result.add(rs.getInt(1));
+                        }
+                    }
+                }
+                if (result.size() != codes.size()) {
+                    throw new SQLException("Expected " + codes.size() + " ids for OTP batch, got " + result.size());
+                }
+                return result;
+            }));
+            logger.debug("OTP codes saved in batch: {}", codes.size());
+            return ids;
         } catch (SQLException e) {
-            logger.error("Error finding active OTP", e);
+            logger.error("Error saving OTP codes in batch", e);
             throw e;
         }
-        return Optional.empty();
     }
 
-    public void updateStatus(int id, String status) throws SQLException {
-        String sql = "UPDATE otp_codes SET status = ? WHERE id = ?";
+    /**
+     * Выполняет транзакцию вставки активных кодов. Две одновременные генерации для одной операции
+     * обе не видят чужой ещё не зафиксированной строки в expireActive, и вторая вставка падает
+     * на уникальном индексе (23505). Тогда транзакция повторяется один раз: expireActive уже
+     * увидит зафиксированный код и истечёт его. Вызывать только вне внешней транзакции.
+     */
+    private <T> T insertActive(TransactionManager.SqlWork<T> work) throws SQLException {
+        try {
+            return tx.inTransaction(work);
+        } catch (SQLException e) {
+            if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                throw e;
+            }
+            logger.debug("Concurrent OTP generation for the same operation, retrying insert");
+            return tx.inTransaction(work);
+        }
+    }
+
+    /**
+     * Истекает прежний активный код. Без нижней границы created_at: активная строка старше
+     * ACTIVE_WINDOW (если планировщик истечения отстал) иначе навсегда блокировала бы вставку.
+     * Поиск идёт по уникальному индексу активного кода в каждой секции.
+     */
+    private static void expireActive(Connection conn, int userId, List<String> operationIds) throws SQLException {
+        String sql = "UPDATE otp_codes SET status = 'EXPIRED' WHERE user_id = ? AND operation_id = ANY (?)"
+            + " AND status = 'ACTIVE'";
         try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, status);
-            ps.setInt(2, id);
+            ps.setInt(1, userId);
+            ps.setArray(2, conn.createArrayOf("varchar", operationIds.toArray()));
             ps.executeUpdate();
-            logger.info("OTP status updated: id={}, status={}", id, status);
+        }
+    }
+
+    private static String multiRowInsert(int rows) {
+        StringBuilder sql = new StringBuilder(
+            "INSERT INTO otp_codes (user_id, operation_id, code, status, created_at, expires_at) VALUES ");
+        for (int r = 0; r < rows; r++) {
+            sql.append(r == 0 ? "" : ", ").append("(?, ?, ?, ?, ?, ?)");
+        }
+        // Порядок RETURNING совпадает с порядком строк VALUES
+        return sql.append(" RETURNING id").toString();
+    }
+
+    /**
+     * Атомарно погашает код одним UPDATE: строка становится USED, только если код совпал,
+     * ещё активен и не истёк. Из двух одновременных проверок успешна лишь одна.
+     * Возвращает id погашенной строки.
+     */
+    public OptionalInt consume(int userId, String opId, String code) throws SQLException {
+        String sql = "UPDATE otp_codes SET status = 'USED'"
+            + " WHERE user_id = ? AND operation_id = ? AND code = ? AND status = 'ACTIVE'"
+            + " AND expires_at > now() AND created_at >= ? RETURNING id";
+        try {
+            OptionalInt result = RequestTrace.stage("db.otp_consume", () -> tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setInt(1, userId);
+                    ps.setString(2, opId);
+                    ps.setString(3, code);
+                    ps.setTimestamp(4, activeWindowStart());
+                    ResultSet rs = ps.executeQuery();
+                    return rs.next() ? OptionalInt.of(rs.getInt(1)) : OptionalInt.empty();
+                }
+            }));
+            if (result.isPresent()) {
+                logger.debug("OTP consumed for user {} operation {}", userId, opId);
+            } else {
+                logger.debug("No matching active OTP for user {} operation {}", userId, opId);
+            }
+            return result;
         } catch (SQLException e) {
-            logger.error("Error updating OTP status", e);
+            logger.error("Error consuming OTP", e);
             throw e;
         }
     }
 
-    public void expireOldCodes() throws SQLException {
-        String sql = "UPDATE otp_codes SET status = 'EXPIRED' WHERE status = 'ACTIVE' AND expires_at < now()";
-        try (Statement st = conn.createStatement()) {
-            st.executeUpdate(sql);
-            logger.info("Expired old OTP codes");
+    /** Позиция keyset-обхода просроченных кодов: последняя обработанная пара (expires_at, id). */
+    public record ExpiryCursor(Timestamp expiresAt, int id) {
+        public static final ExpiryCursor START = new ExpiryCursor(new Timestamp(0), 0);
+    }
+
+    /** Результат одной порции: число просроченных строк и позиция для следующей порции. */
+    public record ExpiredChunk(int count, ExpiryCursor next) {}
+
+    /**
+     * Помечает EXPIRED не больше limit просроченных кодов после курсора. Строки, заблокированные
+     * другими транзакциями (например, идущей проверкой кода), пропускаются и будут обработаны позже.
+     * Просматриваются только секции за ACTIVE_WINDOW: более старый код, если и остался ACTIVE,
+     * уже просрочен (consume его не примет) и будет истёк при следующей генерации той же операции.
+     */
+    public ExpiredChunk expireChunk(ExpiryCursor after, int limit) throws SQLException {
+        String sql = "WITH due AS ("
+            + " SELECT id, expires_at FROM otp_codes"
+            + " WHERE status = 'ACTIVE' AND expires_at < now() AND created_at >= ? AND (expires_at, id) > (?, ?)"
+            + " ORDER BY expires_at, id LIMIT ? FOR UPDATE SKIP LOCKED)"
+            + " UPDATE otp_codes o SET status = 'EXPIRED' FROM due WHERE o.id = due.id AND o.created_at >= ?"
+            + " RETURNING due.expires_at, due.id";
+        try {
+            ExpiredChunk chunk = tx.inTransaction(conn -> {
+                Timestamp since = activeWindowStart();
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setTimestamp(1, since);
+                    ps.setTimestamp(2, after.expiresAt());
+                    ps.setInt(3, after.id());
+                    ps.setInt(4, limit);
+                    ps.setTimestamp(5, since);
+                    ResultSet rs = ps.executeQuery();
+                    int count = 0;
+                    ExpiryCursor last = after;
+                    while (rs.next()) {
+                        count++;
+                        ExpiryCursor row = new ExpiryCursor(rs.getTimestamp(1), rs.getInt(2));
+                        int cmp = row.expiresAt().compareTo(last.expiresAt());
+                        if (cmp > 0 || (cmp == 0 && row.id() > last.id())) {
+                            last = row;
+                        }
+                    }
+                    return new ExpiredChunk(count, last);
+                }
+            });
+            logger.debug("Expired OTP chunk: {}", chunk.count());
+            return chunk;
         } catch (SQLException e) {
-            logger.error("Error expiring old OTP codes", e);
+            logger.error("Error expiring OTP chunk", e);
             throw e;
         }
     }
 
     public void deleteByUserId(int userId) throws SQLException {
         String sql = "DELETE FROM otp_codes WHERE user_id = ?";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, userId);
-            ps.executeUpdate();
+        try {
+            tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setInt(1, userId);
+                    return ps.executeUpdate();
+                }
+            });
             logger.info("Deleted OTP codes for user {}", userId);
         } catch (SQLException e) {
             logger.error("Error deleting OTP codes by userId", e);
@@ -85,15 +249,7 @@ public class OtpCodeDao {
         }
     }
 
-    private OtpCode map(ResultSet rs) throws SQLException {
-        return new OtpCode(
-            rs.getInt("id"),
-            rs.getInt("user_id"),
-            rs.getString("operation_id"),
-            rs.getString("code"),
-            rs.getString("status"),
-            rs.getTimestamp("created_at").toLocalDateTime(),
-            rs.getTimestamp("expires_at").toLocalDateTime()
-        );
+    private static Timestamp activeWindowStart() {
+        return Timestamp.valueOf(LocalDateTime.now().minus(ACTIVE_WINDOW));
     }
 }
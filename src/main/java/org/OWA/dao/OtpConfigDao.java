@@ -1,35 +1,44 @@
 package org.OWA.dao;
 
 import org.OWA.model.OtpConfig;
+import org.OWA.util.RequestTrace;
+import org.OWA.util.TransactionManager;
 import java.sql.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class OtpConfigDao {
     private static final Logger logger = LoggerFactory.getLogger(OtpConfigDao.class);
-    private final Connection conn;
+    /** Канал LISTEN/NOTIFY, в который сообщается об изменении otp_config. */
+    public static final String CHANGE_CHANNEL = "otp_config_changed";
+    private final TransactionManager tx;
 
-    public OtpConfigDao(Connection conn) {
-        this.conn = conn;
+    public OtpConfigDao(TransactionManager tx) {
+        this.tx = tx;
     }
 
     public OtpConfig getConfig() throws SQLException {
         String sql = "SELECT * FROM otp_config WHERE id = 1";
-        try (Statement st = conn.createStatement()) {
-            ResultSet rs = st.executeQuery(sql);
-            if (rs.next()) {
-                OtpConfig config = new OtpConfig(rs.getInt("code_length"), rs.getInt("ttl_seconds"));
-                logger.debug("OTP config loaded: codeLength={}, ttlSeconds={}", config.getCodeLength(), config.getTtlSeconds());
-                return config;
+        OtpConfig config = RequestTrace.stage("db.otp_config", () -> tx.inTransaction(conn -> {
+            try (Statement st = conn.createStatement()) {
+                ResultSet rs = st.executeQuery(sql);
+                if (rs.next()) {
+                    return new OtpConfig(rs.getInt("code_length"), rs.getInt("ttl_seconds"));
+                }
             }
+            // Default config
+            insertDefaultConfig(conn);
+            return null;
+        }));
+        if (config != null) {
+            logger.debug("OTP config loaded: codeLength={}, ttlSeconds={}", config.getCodeLength(), config.getTtlSeconds());
+            return config;
         }
-        // Default config
-        insertDefaultConfig();
         logger.info("Default OTP config created: codeLength=6, ttlSeconds=300");
         return new OtpConfig(6, 300);
     }
 
-    private void insertDefaultConfig() throws SQLException {
+    private void insertDefaultConfig(Connection conn) throws SQLException {
         String insert = "INSERT INTO otp_config (id, code_length, ttl_seconds) VALUES (1, 6, 300) ON CONFLICT (id) DO NOTHING";
         try (PreparedStatement ps = conn.prepareStatement(insert)) {
             ps.executeUpdate();
@@ -38,19 +47,26 @@ public class OtpConfigDao {
 
     public void updateConfig(int codeLength, int ttlSeconds) throws SQLException {
         String sql = "UPDATE otp_config SET code_length = ?, ttl_seconds = ? WHERE id = 1";
-        try (PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setInt(1, codeLength);
-            ps.setInt(2, ttlSeconds);
-            int updated = ps.executeUpdate();
-            if (updated == 0) {
-                String insert = "INSERT INTO otp_config (id, code_length, ttl_seconds) VALUES (1, ?, ?) ON CONFLICT (id) DO UPDATE SET code_length = EXCLUDED.code_length, ttl_seconds = EXCLUDED.ttl_seconds";
-                try (PreparedStatement ins = conn.prepareStatement(insert)) {
-                    ins.setInt(1, codeLength);
-                    ins.setInt(2, ttlSeconds);
-                    ins.executeUpdate();
+        tx.inTransaction(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                ps.setInt(1, codeLength);
+                ps.setInt(2, ttlSeconds);
+                int updated = ps.executeUpdate();
+                if (updated == 0) {
+                    String insert = "INSERT INTO otp_config (id, code_length, ttl_seconds) VALUES (1, ?, ?) ON CONFLICT (id) DO UPDATE SET code_length = EXCLUDED.code_length, ttl_seconds = EXCLUDED.ttl_seconds";
+                    try (PreparedStatement ins = conn.prepareStatement(insert)) {
+                        ins.setInt(1, codeLength);
+                        ins.setInt(2, ttlSeconds);
+                        ins.executeUpdate();
+                    }
+                }
+                // Уведомление доставляется подписчикам только после фиксации транзакции
+                try (Statement st = conn.createStatement()) {
+                    st.execute("NOTIFY " + CHANGE_CHANNEL);
                 }
+                return updated;
             }
-        }
+        });
         logger.info("OTP config updated: codeLength={}, ttlSeconds={}", codeLength, ttlSeconds);
     }
 }
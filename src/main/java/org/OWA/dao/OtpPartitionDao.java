@@ -0,0 +1,192 @@
+package org.OWA.dao;
+
+import org.OWA.util.TransactionManager;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Суточные секции otp_codes (см. миграцию V2__partition_otp_codes.sql). */
+public class OtpPartitionDao {
+    private static final Logger logger = LoggerFactory.getLogger(OtpPartitionDao.class);
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+    private static final Pattern LOWER_BOUND = Pattern.compile("FROM \\('([^']+)'\\)");
+    private static final String PARTITIONS_SQL = "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i"
+        + " JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'otp_codes'::regclass";
+    private static final String DEFAULT_PARTITION = "otp_codes_default";
+    private static final String COLUMNS = "id, user_id, operation_id, code, status, created_at, expires_at";
+    private final TransactionManager tx;
+
+    public OtpPartitionDao(TransactionManager tx) {
+        this.tx = tx;
+    }
+
+    /**
+     * Создаёт секцию [day, day + 1), если сутки ещё не покрыты другой секцией, вместе
+     * с уникальным индексом активного кода. Уникальный индекс на секционированной таблице обязан включать created_at, поэтому
+     * он строится на каждой секции отдельно (см. V3__one_active_otp.sql).
+     * Если в DEFAULT уже лежат строки этих суток, CREATE ... PARTITION OF упал бы на них:
+     * тогда в той же транзакции DEFAULT отключается, строки переносятся в новую секцию
+     * и DEFAULT подключается обратно. Возвращает число перенесённых строк.
+     */
+    public int createDailyPartition(LocalDate day) throws SQLException {
+        String name = "otp_codes_p" + day.format(SUFFIX);
+        Timestamp from = Timestamp.valueOf(day.atStartOfDay());
+        Timestamp to = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+        String create = String.format(
+            "CREATE TABLE %s PARTITION OF otp_codes FOR VALUES FROM ('%s') TO ('%s')",
+            name, day.atStartOfDay(), day.plusDays(1).atStartOfDay());
+        String index = String.format(
+            "CREATE UNIQUE INDEX IF NOT EXISTS %s_one_active ON %s (user_id, operation_id) WHERE status = 'ACTIVE'",
+            name, name);
+        String inRange = " WHERE created_at >= ? AND created_at < ?";
+        try {
+            int moved = tx.inTransaction(conn -> {
+                try (Statement st = conn.createStatement()) {
+                    // Блокировка заодно упорядочивает одновременное обслуживание на нескольких узлах:
+                    // новые строки в DEFAULT не появятся между проверкой и созданием секции
+                    st.execute("LOCK TABLE " + DEFAULT_PARTITION + " IN EXCLUSIVE MODE");
+                    String covering = partitionCovering(conn, day.atStartOfDay());
+                    if (covering != null) {
+                        if (covering.equals(name)) {
+                            st.executeUpdate(index);
+                        }
+                        return 0;
+                    }
+                    int stray = countRange(conn, from, to);
+                    if (stray == 0) {
+                        st.executeUpdate(create);
+                        st.executeUpdate(index);
+                        return 0;
+                    }
+                    st.executeUpdate("ALTER TABLE otp_codes DETACH PARTITION " + DEFAULT_PARTITION);
+                    st.executeUpdate(create);
+                    st.executeUpdate(index);
+                    try (PreparedStatement ps = conn.prepareStatement("INSERT INTO otp_codes (" + COLUMNS + ")"
+                            + " SELECT " + COLUMNS + " FROM " + DEFAULT_PARTITION + inRange)) {
+                        ps.setTimestamp(1, from);
+                        ps.setTimestamp(2, to);
+                        ps.executeUpdate();
+                    }
+                    try (PreparedStatement ps = conn.prepareStatement("DELETE FROM " + DEFAULT_PARTITION + inRange)) {
+                        ps.setTimestamp(1, from);
+                        ps.setTimestamp(2, to);
+                        ps.executeUpdate();
+                    }
+                    st.executeUpdate("ALTER TABLE otp_codes ATTACH PARTITION " + DEFAULT_PARTITION + " DEFAULT");
+                    return stray;
+                }
+            });
+            if (moved > 0) {
+                logger.warn("Moved {} OTP rows for {} from {} into new partition {}", moved, day, DEFAULT_PARTITION, name);
+            } else {
+                logger.debug("OTP partition ensured for {}", day);
+            }
+            return moved;
+        } catch (SQLException e) {
+            logger.error("Error creating OTP partition for {}", day, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Удаляет из DEFAULT строки старше cutoff: секции по срокам хранения удаляются целиком,
+     * а DEFAULT — нет, и без этого всё, что туда попало, лежало бы вечно.
+     */
+    public int purgeDefaultBefore(LocalDateTime cutoff) throws SQLException {
+        String sql = "DELETE FROM " + DEFAULT_PARTITION + " WHERE created_at < ?";
+        try {
+            int deleted = tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setTimestamp(1, Timestamp.valueOf(cutoff));
+                    return ps.executeUpdate();
+                }
+            });
+            if (deleted > 0) {
+                logger.info("Deleted {} OTP rows older than {} from {}", deleted, cutoff, DEFAULT_PARTITION);
+            }
+            return deleted;
+        } catch (SQLException e) {
+            logger.error("Error purging {}", DEFAULT_PARTITION, e);
+            throw e;
+        }
+    }
+
+    /** Число строк в DEFAULT. В норме 0: строки там значат, что секции не были созданы вовремя. */
+    public long countDefaultRows() throws SQLException {
+        String sql = "SELECT count(*) FROM " + DEFAULT_PARTITION;
+        return tx.inTransaction(conn -> {
+            try (Statement st = conn.createStatement()) {
+                ResultSet rs = st.executeQuery(sql);
+                rs.next();
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    /** Имя секции, в диапазон которой попадает момент at, или null, если такой нет (кроме DEFAULT). */
+    private static String partitionCovering(Connection conn, LocalDateTime at) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            ResultSet rs = st.executeQuery(PARTITIONS_SQL);
+            while (rs.next()) {
+                Matcher upper = UPPER_BOUND.matcher(rs.getString(2));
+                if (!upper.find() || !Timestamp.valueOf(upper.group(1)).toLocalDateTime().isAfter(at)) {
+                    continue;
+                }
+                Matcher lower = LOWER_BOUND.matcher(rs.getString(2));
+                // FROM (MINVALUE) — как у otp_codes_legacy в день миграции
+                if (!lower.find() || !Timestamp.valueOf(lower.group(1)).toLocalDateTime().isAfter(at)) {
+                    return rs.getString(1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int countRange(Connection conn, Timestamp from, Timestamp to) throws SQLException {
+        String sql = "SELECT count(*) FROM " + DEFAULT_PARTITION + " WHERE created_at >= ? AND created_at < ?";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.setTimestamp(1, from);
+            ps.setTimestamp(2, to);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    /** Удаляет секции, верхняя граница которых не позже cutoff; возвращает их имена. */
+    public List<String> dropPartitionsBefore(LocalDateTime cutoff) throws SQLException {
+        try {
+            List<String> dropped = tx.inTransaction(conn -> {
+                List<String> names = new ArrayList<>();
+                try (Statement st = conn.createStatement()) {
+                    ResultSet rs = st.executeQuery(PARTITIONS_SQL);
+                    while (rs.next()) {
+                        Matcher m = UPPER_BOUND.matcher(rs.getString(2));
+                        // Секция DEFAULT границ не имеет и не удаляется (см. purgeDefaultBefore)
+                        if (m.find() && !Timestamp.valueOf(m.group(1)).toLocalDateTime().isAfter(cutoff)) {
+                            names.add(rs.getString(1));
+                        }
+                    }
+                    for (String name : names) {
+                        st.executeUpdate("DROP TABLE " + name);
+                    }
+                }
+                return names;
+            });
+            if (!dropped.isEmpty()) {
+                logger.info("Dropped OTP partitions: {}", dropped);
+            }
+            return dropped;
+        } catch (SQLException e) {
+            logger.error("Error dropping old OTP partitions", e);
+            throw e;
+        }
+    }
+}
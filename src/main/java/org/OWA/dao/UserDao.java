@@ -1,6 +1,10 @@
 package org.OWA.dao;
 
 import org.OWA.model.User;
+import org.OWA.util.RequestTrace;
+import org.OWA.util.TransactionManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.*;
 import java.util.*;
 import org.slf4j.Logger;
@@ -8,90 +12,161 @@ import org.slf4j.LoggerFactory;
 
 public class UserDao {
     private static final Logger logger = LoggerFactory.getLogger(UserDao.class);
-    private final Connection conn;
+    private final TransactionManager tx;
 
-    public UserDao(Connection conn) {
-        this.conn = conn;
+    public UserDao(TransactionManager tx) {
+        this.tx = tx;
     }
 
     public Optional<User> findByUsername(String username) throws SQLException {
+        Optional<User> user;
+        String sql = "SELECT * FROM users WHERE username = ?";
         try {
-            String sql = "SELECT * FROM users WHERE username = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, username);
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    logger.debug("User found: {}", username);
-                    return Optional.of(map(rs));
+            user = RequestTrace.stage("db.user_lookup", () -> tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, username);
+                    ResultSet rs = ps.executeQuery();
+                    return rs.next() ? Optional.of(map(rs)) : Optional.<User>empty();
                 }
-            }
+            }));
         } catch (SQLException e) {
             logger.error("Error finding user by username", e);
             throw e;
         }
-        logger.debug("User not found: {}", username);
-        return Optional.empty();
+        if (user.isPresent()) {
+            logger.debug("User found: {}", username);
+        } else {
+            logger.debug("User not found: {}", username);
+        }
+        return user;
+    }
+
+    /**
+     * Как findByUsername, но блокирует строку пользователя до конца транзакции (SELECT ... FOR UPDATE).
+     * Вызывать внутри tx.inTransaction, иначе блокировка снимается сразу.
+     */
+    public Optional<User> findByUsernameForUpdate(String username) throws SQLException {
+        String sql = "SELECT * FROM users WHERE username = ? FOR UPDATE";
+        try {
+            return tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, username);
+                    ResultSet rs = ps.executeQuery();
+                    return rs.next() ? Optional.of(map(rs)) : Optional.<User>empty();
+                }
+            });
+        } catch (SQLException e) {
+            logger.error("Error locking user by username", e);
+            throw e;
+        }
     }
 
     public boolean adminExists() throws SQLException {
         try {
             String sql = "SELECT COUNT(*) FROM users WHERE role = 'ADMIN'";
-            try (Statement st = conn.createStatement()) {
-                ResultSet rs = st.executeQuery(sql);
-                if (rs.next()) {
-                    boolean exists = rs.getInt(1) > 0;
-                    logger.debug("Admin exists: {}", exists);
-                    return exists;
+            boolean exists = tx.inTransaction(conn -> {
+                try (Statement st = conn.createStatement()) {
+                    ResultSet rs = st.executeQuery(sql);
+                    return rs.next() && rs.getInt(1) > 0;
                 }
-            }
+            });
+            logger.debug("Admin exists: {}", exists);
+            return exists;
         } catch (SQLException e) {
             logger.error("Error checking admin existence", e);
             throw e;
         }
-        return false;
     }
 
     public void save(User user) throws SQLException {
         try {
             String sql = "INSERT INTO users (username, password, role, email) VALUES (?, ?, ?, ?)";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setString(1, user.getUsername());
-                ps.setString(2, user.getPassword());
-                ps.setString(3, user.getRole());
-                ps.setString(4, user.getEmail());
-                ps.executeUpdate();
-                logger.info("User saved: {}", user.getUsername());
-            }
+            tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, user.getUsername());
+                    ps.setString(2, user.getPassword());
+                    ps.setString(3, user.getRole());
+                    ps.setString(4, user.getEmail());
+                    return ps.executeUpdate();
+                }
+            });
+            logger.info("User saved: {}", user.getUsername());
         } catch (SQLException e) {
             logger.error("Error saving user", e);
             throw e;
         }
     }
 
-    public List<User> findAllNonAdmins() throws SQLException {
-        List<User> users = new ArrayList<>();
+    public void updatePassword(int id, String hashedPassword) throws SQLException {
+        try {
+            String sql = "UPDATE users SET password = ? WHERE id = ?";
+            tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setString(1, hashedPassword);
+                    ps.setInt(2, id);
+                    return ps.executeUpdate();
+                }
+            });
+            logger.info("Password hash updated for user id: {}", id);
+        } catch (SQLException e) {
+            logger.error("Error updating password hash", e);
+            throw e;
+        }
+    }
+
+    /** Получатель строк при потоковом чтении; пароль в User не заполняется. */
+    public interface RowHandler {
+        void handle(User user) throws IOException;
+    }
+
+    /**
+     * Потоково читает не-админов с id больше afterId в порядке id (keyset-пагинация),
+     * не больше limit строк (0 — без ограничения). Строки приходят порциями по fetchSize
+     * через курсор, хеш пароля не выбирается. Возвращает число переданных строк.
+     * Ошибка записи в handler пробрасывается как UncheckedIOException.
+     */
+    public int streamNonAdmins(int afterId, int limit, int fetchSize, RowHandler handler) throws SQLException {
+        String sql = "SELECT id, username, role, email FROM users WHERE role != 'ADMIN' AND id > ? ORDER BY id"
+            + (limit > 0 ? " LIMIT ?" : "");
         try {
-            String sql = "SELECT * FROM users WHERE role != 'ADMIN'";
-            try (Statement st = conn.createStatement()) {
-                ResultSet rs = st.executeQuery(sql);
-                while (rs.next()) users.add(map(rs));
-                logger.debug("Non-admin users found: {}", users.size());
-            }
+            int count = tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setFetchSize(fetchSize);
+                    ps.setInt(1, afterId);
+                    if (limit > 0) {
+                        ps.setInt(2, limit);
+                    }
+                    int rows = 0;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            handler.handle(new User(rs.getInt("id"), rs.getString("username"), null,
+                                rs.getString("role"), rs.getString("email")));
+                            rows++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return rows;
+                }
+            });
+            logger.debug("Non-admin users streamed: {}", count);
+            return count;
         } catch (SQLException e) {
-            logger.error("Error finding non-admin users", e);
+            logger.error("Error streaming non-admin users", e);
             throw e;
         }
-        return users;
     }
 
     public void deleteById(int id) throws SQLException {
         try {
             String sql = "DELETE FROM users WHERE id = ?";
-            try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                ps.setInt(1, id);
-                ps.executeUpdate();
-                logger.info("User deleted by id: {}", id);
-            }
+            tx.inTransaction(conn -> {
+                try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                    ps.setInt(1, id);
+                    return ps.executeUpdate();
+                }
+            });
+            logger.info("User deleted by id: {}", id);
         } catch (SQLException e) {
             logger.error("Error deleting user by id", e);
             throw e;
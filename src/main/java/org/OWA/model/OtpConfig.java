@@ -1,8 +1,8 @@
 package org.OWA.model;
 
 public class OtpConfig {
-    private int codeLength;
-    private int ttlSeconds;
+    private final int codeLength;
+    private final int ttlSeconds;
 
     public OtpConfig(int codeLength, int ttlSeconds) {
         this.codeLength = codeLength;
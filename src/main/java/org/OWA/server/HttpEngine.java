@@ -0,0 +1,36 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * HTTP-сервер, на котором работает ApiHandler.
+ *
+ * Обработчик видит обычный {@link com.sun.net.httpserver.HttpExchange} при любом движке:
+ * jdk — встроенный com.sun.net.httpserver.HttpServer, nio — собственный сервер на селекторах
+ * (см. {@link NioHttpEngine}). Сами обработчики в обоих случаях выполняются на переданном пуле.
+ */
+public interface HttpEngine {
+
+    void start() throws IOException;
+
+    /** Перестаёт принимать соединения и ждёт завершения текущих запросов не дольше delaySeconds. */
+    void stop(int delaySeconds);
+
+    /** Фактический адрес сервера (с выбранным портом, если задан порт 0). */
+    InetSocketAddress getAddress();
+
+    static HttpEngine create(String type, InetSocketAddress address, HttpHandler handler,
+                             ExecutorService executor) throws IOException {
+        switch (type.toLowerCase()) {
+            case "jdk":
+                return new JdkHttpEngine(address, handler, executor);
+            case "nio":
+                return new NioHttpEngine(address, handler, executor);
+            default:
+                throw new IllegalArgumentException("Unknown HTTP engine: " + type);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+/** Встроенный com.sun.net.httpserver.HttpServer: один поток приёма и разбора запросов. */
+final class JdkHttpEngine implements HttpEngine {
+    private final HttpServer server;
+
+    JdkHttpEngine(InetSocketAddress address, HttpHandler handler, ExecutorService executor) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext("/api", handler);
+        server.setExecutor(executor);
+    }
+
+    @Override
+    public void start() {
+        server.start();
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+}
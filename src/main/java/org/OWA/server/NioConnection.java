@@ -0,0 +1,431 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.Headers;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Одно клиентское соединение NioHttpEngine.
+ *
+ * Чтение, разбор запросов и закрытие выполняются только в потоке event loop. Поток обработчика
+ * лишь добавляет готовые буферы ответа в очередь (send/finish); если клиент читает медленно и
+ * в очереди больше writeHighWaterBytes, обработчик ждёт, пока event loop её разгрузит.
+ * Пока запрос в работе, чтение из сокета приостановлено: следующие запросы, пришедшие
+ * конвейером, остаются в буфере и разбираются после отправки ответа.
+ */
+final class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_GATHER = 16;
+
+    private final NioHttpEngine engine;
+    private final NioHttpEngine.EventLoop loop;
+    private final SocketChannel channel;
+    private final BufferPool buffers;
+    private final InetSocketAddress remoteAddress;
+    private final InetSocketAddress localAddress;
+    // Очередь ответа: добавляют потоки обработчиков, забирает event loop; под монитором this
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long outBytes;
+    private volatile boolean closed;
+
+    private SelectionKey key;
+    // Непрочитанные входящие байты в [0, position)
+    private ByteBuffer in;
+    private NioHttpExchange pending;
+    private byte[] body;
+    private int bodyFilled;
+    private boolean busy;
+    private boolean responseDone;
+    private boolean closeAfterResponse;
+    private boolean inputShutdown;
+    private boolean writeBlocked;
+    private long lastActive = System.currentTimeMillis();
+
+    NioConnection(NioHttpEngine engine, NioHttpEngine.EventLoop loop, SocketChannel channel) throws IOException {
+        this.engine = engine;
+        this.loop = loop;
+        this.channel = channel;
+        this.buffers = engine.buffers;
+        this.remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+        this.localAddress = (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    InetSocketAddress remoteAddress() {
+        return remoteAddress;
+    }
+
+    InetSocketAddress localAddress() {
+        return localAddress;
+    }
+
+    BufferPool buffers() {
+        return buffers;
+    }
+
+    boolean isStopping() {
+        return engine.stopping;
+    }
+
+    boolean isIdleSince(long idleBefore) {
+        return !busy && lastActive <= idleBefore;
+    }
+
+    // ---- event loop ----
+
+    void onReadable() {
+        if (in == null) {
+            in = buffers.acquire();
+        }
+        int read;
+        try {
+            read = channel.read(in);
+        } catch (IOException e) {
+            logger.debug("Read from {} failed: {}", remoteAddress, e.getMessage());
+            close();
+            return;
+        }
+        if (read < 0) {
+            if (busy) {
+                inputShutdown = true;
+                updateInterest();
+            } else {
+                close();
+            }
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        processInput();
+    }
+
+    void onWritable() {
+        writeBlocked = false;
+        writeOut();
+    }
+
+    private void processInput() {
+        while (!busy && !closed) {
+            if (pending != null) {
+                if (in != null && in.position() > 0) {
+                    int n = Math.min(in.position(), body.length - bodyFilled);
+                    in.flip();
+                    in.get(body, bodyFilled, n);
+                    in.compact();
+                    bodyFilled += n;
+                }
+                if (bodyFilled < body.length) {
+                    break;
+                }
+                NioHttpExchange exchange = pending;
+                byte[] requestBody = body;
+                pending = null;
+                body = null;
+                dispatch(exchange, requestBody);
+                break;
+            }
+            if (in == null || in.position() == 0) {
+                break;
+            }
+            int end = headerEnd(in);
+            if (end < 0) {
+                if (!in.hasRemaining()) {
+                    reject(431, "Request Header Fields Too Large");
+                }
+                break;
+            }
+            byte[] head = new byte[end];
+            in.flip();
+            in.get(head);
+            in.compact();
+            parseRequest(new String(head, 0, end - 4, StandardCharsets.ISO_8859_1));
+        }
+        if (in != null && in.position() == 0) {
+            buffers.release(in);
+            in = null;
+        }
+        updateInterest();
+    }
+
+    private static int headerEnd(ByteBuffer buffer) {
+        for (int i = 3; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r' && buffer.get(i - 2) == '\n' && buffer.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void parseRequest(String head) {
+        String[] lines = head.split("\r\n");
+        int first = 0;
+        // Пустые строки перед запросом допускаются (RFC 9112, 2.2)
+        while (first < lines.length && lines[first].isEmpty()) {
+            first++;
+        }
+        if (first == lines.length) {
+            return;
+        }
+        String[] requestLine = lines[first].split(" ");
+        if (requestLine.length != 3) {
+            reject(400, "Bad Request");
+            return;
+        }
+        String method = requestLine[0];
+        String protocol = requestLine[2];
+        boolean http11 = protocol.equals("HTTP/1.1");
+        if (!http11 && !protocol.equals("HTTP/1.0")) {
+            reject(505, "HTTP Version Not Supported");
+            return;
+        }
+        URI uri;
+        try {
+            uri = new URI(requestLine[1]);
+        } catch (URISyntaxException e) {
+            reject(400, "Bad Request");
+            return;
+        }
+        Headers headers = new Headers();
+        for (int i = first + 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                reject(400, "Bad Request");
+                return;
+            }
+            headers.add(lines[i].substring(0, colon), lines[i].substring(colon + 1).trim());
+        }
+        if (headers.containsKey("Transfer-Encoding")) {
+            reject(501, "Not Implemented");
+            return;
+        }
+        long length = 0;
+        String contentLength = headers.getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                length = Long.parseLong(contentLength);
+            } catch (NumberFormatException e) {
+                length = -1;
+            }
+            if (length < 0) {
+                reject(400, "Bad Request");
+                return;
+            }
+        }
+        if (length > engine.maxBodyBytes) {
+            reject(413, "Content Too Large");
+            return;
+        }
+        String connection = headers.getFirst("Connection");
+        boolean keepAlive = http11
+            ? connection == null || !connection.toLowerCase().contains("close")
+            : connection != null && connection.toLowerCase().contains("keep-alive");
+        NioHttpExchange exchange = new NioHttpExchange(this, method, uri, protocol, headers, keepAlive);
+        if (length == 0) {
+            dispatch(exchange, EMPTY);
+            return;
+        }
+        if ("100-continue".equalsIgnoreCase(headers.getFirst("Expect"))) {
+            offer(CONTINUE);
+            writeOut();
+        }
+        pending = exchange;
+        body = new byte[(int) length];
+        bodyFilled = 0;
+    }
+
+    private void dispatch(NioHttpExchange exchange, byte[] requestBody) {
+        exchange.setRequestBody(requestBody);
+        busy = true;
+        updateInterest();
+        engine.dispatch(exchange);
+    }
+
+    /** Отвечает ошибкой без вызова обработчика и закрывает соединение. */
+    void reject(int code, String reason) {
+        busy = true;
+        pending = null;
+        body = null;
+        offer(("HTTP/1.1 " + code + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+            .getBytes(StandardCharsets.US_ASCII));
+        finishResponse(true);
+    }
+
+    private void offer(byte[] bytes) {
+        ByteBuffer buffer = buffers.acquire();
+        buffer.put(bytes).flip();
+        synchronized (this) {
+            out.add(buffer);
+            outBytes += buffer.remaining();
+        }
+    }
+
+    private void finishResponse(boolean close) {
+        if (closed) {
+            return;
+        }
+        responseDone = true;
+        closeAfterResponse |= close;
+        writeOut();
+    }
+
+    private void writeOut() {
+        if (closed) {
+            return;
+        }
+        try {
+            while (true) {
+                int count = 0;
+                synchronized (this) {
+                    for (ByteBuffer buffer : out) {
+                        gather[count++] = buffer;
+                        if (count == MAX_GATHER) {
+                            break;
+                        }
+                    }
+                }
+                if (count == 0) {
+                    break;
+                }
+                long written = channel.write(gather, 0, count);
+                int done = 0;
+                while (done < count && !gather[done].hasRemaining()) {
+                    done++;
+                }
+                Arrays.fill(gather, 0, count, null);
+                synchronized (this) {
+                    for (int i = 0; i < done; i++) {
+                        buffers.release(out.poll());
+                    }
+                    outBytes -= written;
+                    notifyAll();
+                }
+                if (done < count) {
+                    writeBlocked = true;
+                    updateInterest();
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("Write to {} failed: {}", remoteAddress, e.getMessage());
+            close();
+            return;
+        }
+        if (responseDone) {
+            completeResponse();
+        } else {
+            updateInterest();
+        }
+    }
+
+    private void completeResponse() {
+        responseDone = false;
+        busy = false;
+        if (closeAfterResponse || inputShutdown || engine.stopping) {
+            close();
+            return;
+        }
+        lastActive = System.currentTimeMillis();
+        processInput();
+    }
+
+    private void updateInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!busy && !inputShutdown) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (writeBlocked) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        synchronized (this) {
+            closed = true;
+            for (ByteBuffer buffer : out) {
+                buffers.release(buffer);
+            }
+            out.clear();
+            outBytes = 0;
+            notifyAll();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Error closing connection to {}", remoteAddress, e);
+        }
+        if (in != null) {
+            buffers.release(in);
+            in = null;
+        }
+        pending = null;
+        body = null;
+        loop.closed(this);
+    }
+
+    // ---- поток обработчика ----
+
+    /** Добавляет часть ответа в очередь отправки. */
+    void send(ByteBuffer data) throws IOException {
+        enqueue(data);
+        loop.execute(this::writeOut);
+    }
+
+    /** Добавляет последнюю часть ответа (может быть null) и завершает обмен. */
+    void finish(ByteBuffer last, boolean close) throws IOException {
+        if (last != null) {
+            enqueue(last);
+        }
+        loop.execute(() -> finishResponse(close));
+    }
+
+    /** Закрывает соединение, не дожидаясь ответа. */
+    void abort() {
+        loop.execute(this::close);
+    }
+
+    private synchronized void enqueue(ByteBuffer data) throws IOException {
+        while (outBytes >= engine.writeHighWaterBytes && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                buffers.release(data);
+                throw new InterruptedIOException("Interrupted while writing response");
+            }
+        }
+        if (closed) {
+            buffers.release(data);
+            throw new IOException("Connection closed");
+        }
+        out.add(data);
+        outBytes += data.remaining();
+    }
+}
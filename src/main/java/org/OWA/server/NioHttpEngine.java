@@ -0,0 +1,296 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.HttpHandler;
+import org.OWA.util.AppConfig;
+import org.OWA.util.Metrics;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HTTP/1.1-сервер на неблокирующих каналах.
+ *
+ * Поток приёма раздаёт соединения по кругу нескольким event loop, у каждого свой Selector.
+ * Event loop читает и разбирает запросы, а готовый запрос передаёт обработчику на пул
+ * (обработчики блокируются на БД, поэтому в event loop они не выполняются). Ответ копится
+ * в direct-буферах из общего пула и уходит в сокет из event loop. Соединения держатся
+ * открытыми (keep-alive), запросы, присланные подряд без ожидания ответа (pipelining),
+ * обрабатываются по очереди, и ответы идут в порядке запросов.
+ */
+public final class NioHttpEngine implements HttpEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpEngine.class);
+    private static final long SELECT_TIMEOUT_MS = 1000;
+
+    private final InetSocketAddress address;
+    private final HttpHandler handler;
+    private final ExecutorService executor;
+    private final int loopCount;
+    private final int backlog;
+    final BufferPool buffers;
+    final int maxBodyBytes;
+    final long keepAliveTimeoutMs;
+    final long writeHighWaterBytes;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private Thread acceptor;
+    volatile boolean stopping;
+    private volatile long forceCloseAt = Long.MAX_VALUE;
+
+    public NioHttpEngine(InetSocketAddress address, HttpHandler handler, ExecutorService executor) {
+        this.address = address;
+        this.handler = handler;
+        this.executor = executor;
+        int loops = AppConfig.getInt("server.nio.loops", 0);
+        this.loopCount = loops > 0 ? loops : Runtime.getRuntime().availableProcessors();
+        this.backlog = AppConfig.getInt("server.nio.backlog", 1024);
+        int bufferSize = AppConfig.getInt("server.nio.buffer.size", 16384);
+        this.buffers = new BufferPool(bufferSize, AppConfig.getInt("server.nio.buffer.pool.max", 1024));
+        this.maxBodyBytes = AppConfig.getInt("server.nio.max.body.bytes", 1_048_576);
+        this.keepAliveTimeoutMs = AppConfig.getLong("server.nio.keepalive.timeout.ms", 30_000);
+        this.writeHighWaterBytes = AppConfig.getLong("server.nio.write.high.water.bytes", 262_144);
+    }
+
+    @Override
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, backlog);
+        loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "http-nio-accept");
+        acceptor.start();
+        Metrics.gauge("otp_http_open_connections", "Open client connections of the NIO HTTP engine", "", openConnections::get);
+        logger.info("NIO HTTP engine listening on {} with {} event loops", getAddress(), loopCount);
+    }
+
+    @Override
+    public InetSocketAddress getAddress() {
+        try {
+            return serverChannel != null ? (InetSocketAddress) serverChannel.getLocalAddress() : address;
+        } catch (IOException e) {
+            return address;
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (!stopping) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (!stopping) {
+                    logger.error("Error accepting connection", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop(int delaySeconds) {
+        stopping = true;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing server socket", e);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(delaySeconds);
+        forceCloseAt = deadline;
+        for (EventLoop loop : loops) {
+            loop.wakeup();
+        }
+        try {
+            acceptor.join(1000);
+            for (EventLoop loop : loops) {
+                long remainingMs = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+                loop.thread.join(remainingMs + SELECT_TIMEOUT_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("NIO HTTP engine stopped, {} requests were still in flight", inFlight.get());
+    }
+
+    /** Передаёт разобранный запрос обработчику на пуле; вызывается из event loop. */
+    void dispatch(NioHttpExchange exchange) {
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> handle(exchange));
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            logger.warn("Request rejected by executor: {}", e.getMessage());
+            exchange.connection().reject(503, "Service Unavailable");
+        }
+    }
+
+    private void handle(NioHttpExchange exchange) {
+        try {
+            handler.handle(exchange);
+        } catch (Throwable e) {
+            logger.error("Unhandled error processing {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            exchange.abort();
+        } finally {
+            exchange.close();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /** Поток с собственным Selector, обслуживающий часть соединений. */
+    final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean wakenUp = new AtomicBoolean();
+        private final Set<NioConnection> connections = new HashSet<>();
+        final Thread thread;
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "http-nio-loop-" + index);
+        }
+
+        /** Выполняет задачу в потоке event loop. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            wakeup();
+        }
+
+        void wakeup() {
+            if (wakenUp.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    NioConnection connection = new NioConnection(NioHttpEngine.this, this, channel);
+                    connection.attach(channel.register(selector, SelectionKey.OP_READ, connection));
+                    connections.add(connection);
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    logger.warn("Failed to register connection", e);
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // соединение и так не используется
+                    }
+                }
+            });
+        }
+
+        void closed(NioConnection connection) {
+            if (connections.remove(connection)) {
+                openConnections.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            long nextSweep = System.currentTimeMillis() + SELECT_TIMEOUT_MS;
+            try {
+                while (true) {
+                    wakenUp.set(false);
+                    if (tasks.isEmpty()) {
+                        selector.select(SELECT_TIMEOUT_MS);
+                    } else {
+                        selector.selectNow();
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                        } catch (RuntimeException e) {
+                            logger.error("Error serving connection {}", connection.remoteAddress(), e);
+                            connection.close();
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                    runTasks();
+                    long now = System.currentTimeMillis();
+                    if (stopping) {
+                        closeIdle(Long.MAX_VALUE);
+                        if (connections.isEmpty() || System.nanoTime() >= forceCloseAt) {
+                            break;
+                        }
+                    } else if (now >= nextSweep) {
+                        closeIdle(now - keepAliveTimeoutMs);
+                        nextSweep = now + SELECT_TIMEOUT_MS;
+                    }
+                }
+            } catch (Throwable e) {
+                logger.error("Event loop {} failed", thread.getName(), e);
+            } finally {
+                runTasks();
+                for (NioConnection connection : new ArrayList<>(connections)) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing selector", e);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Event loop task failed", e);
+                }
+            }
+        }
+
+        /** Закрывает соединения без запроса в работе, простаивающие с момента idleBefore. */
+        private void closeIdle(long idleBefore) {
+            List<NioConnection> idle = new ArrayList<>();
+            for (NioConnection connection : connections) {
+                if (connection.isIdleSince(idleBefore)) {
+                    idle.add(connection);
+                }
+            }
+            for (NioConnection connection : idle) {
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,406 @@
+package org.OWA.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HttpExchange поверх NioConnection, чтобы обработчики работали без изменений.
+ *
+ * Тело запроса к моменту вызова обработчика уже прочитано целиком. Ответ пишется в direct-буферы
+ * из пула: заполненный буфер уходит в очередь соединения, последний — при закрытии потока.
+ * sendResponseHeaders(code, 0) включает chunked-кодирование; длина куска записывается
+ * восемью шестнадцатеричными цифрами с ведущими нулями, поэтому место под неё резервируется
+ * в буфере заранее и данные не копируются повторно.
+ */
+final class NioHttpExchange extends HttpExchange {
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpExchange.class);
+    private static final int CHUNK_HEADER = 10;
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    // CRLF после данных куска и завершающий кусок нулевой длины
+    private static final int CHUNK_TRAILER = 2 + LAST_CHUNK.length;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static volatile CachedDate cachedDate = new CachedDate(0, "");
+
+    private record CachedDate(long second, String value) {}
+
+    private final NioConnection connection;
+    private final String method;
+    private final URI uri;
+    private final String protocol;
+    private final Headers requestHeaders;
+    private final Headers responseHeaders = new Headers();
+    private final boolean keepAlive;
+    private final ResponseBody responseBody;
+    private InputStream requestStream = InputStream.nullInputStream();
+    private OutputStream responseStream;
+    private Map<String, Object> attributes;
+    private int responseCode = -1;
+    private boolean closeAfter;
+
+    NioHttpExchange(NioConnection connection, String method, URI uri, String protocol,
+                    Headers requestHeaders, boolean keepAlive) {
+        this.connection = connection;
+        this.method = method;
+        this.uri = uri;
+        this.protocol = protocol;
+        this.requestHeaders = requestHeaders;
+        this.keepAlive = keepAlive;
+        this.responseBody = new ResponseBody();
+        this.responseStream = responseBody;
+    }
+
+    NioConnection connection() {
+        return connection;
+    }
+
+    void setRequestBody(byte[] body) {
+        requestStream = new ByteArrayInputStream(body);
+    }
+
+    /** Закрывает соединение, если ответ ещё не отправлен целиком. */
+    void abort() {
+        if (responseBody.discard()) {
+            connection.abort();
+        }
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    /** Контекстов у NIO-движка нет: все запросы идут в один обработчик. */
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        try {
+            requestStream.close();
+        } catch (IOException e) {
+            logger.debug("Error closing request body", e);
+        }
+        try {
+            responseStream.close();
+        } catch (IOException e) {
+            logger.debug("Error closing response body: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestStream;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseStream;
+    }
+
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) throws IOException {
+        if (responseCode >= 0) {
+            throw new IOException("Response headers already sent");
+        }
+        responseCode = rCode;
+        boolean bodyForbidden = rCode < 200 || rCode == 204 || rCode == 304;
+        boolean head = method.equals("HEAD");
+        boolean chunked = responseLength == 0 && !bodyForbidden && !head;
+        if (responseLength > 0) {
+            responseHeaders.set("Content-length", Long.toString(responseLength));
+        } else if (chunked) {
+            responseHeaders.set("Transfer-encoding", "chunked");
+        } else if (!bodyForbidden) {
+            responseHeaders.set("Content-length", "0");
+        }
+        closeAfter = !keepAlive || connection.isStopping();
+        if (closeAfter) {
+            responseHeaders.set("Connection", "close");
+        }
+        responseHeaders.set("Date", date());
+
+        StringBuilder text = new StringBuilder(256);
+        text.append("HTTP/1.1 ").append(rCode).append(' ').append(reason(rCode)).append("\r\n");
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            for (String value : header.getValue()) {
+                text.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        text.append("\r\n");
+        responseBody.start(text.toString().getBytes(StandardCharsets.ISO_8859_1),
+            chunked, Math.max(responseLength, 0), bodyForbidden || head);
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return connection.remoteAddress();
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return connection.localAddress();
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes != null ? attributes.get(name) : null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (attributes == null) {
+            attributes = new HashMap<>();
+        }
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+        if (i != null) {
+            requestStream = i;
+        }
+        if (o != null) {
+            responseStream = o;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+
+    private static String date() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedDate cached = cachedDate;
+        if (cached.second() != second) {
+            cached = new CachedDate(second, DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC)));
+            cachedDate = cached;
+        }
+        return cached.value();
+    }
+
+    private static String reason(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 204: return "No Content";
+            case 304: return "Not Modified";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 409: return "Conflict";
+            case 413: return "Content Too Large";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "";
+        }
+    }
+
+    /** Поток тела ответа: пишет в буферы из пула и отдаёт их соединению. */
+    private final class ResponseBody extends OutputStream {
+        private final BufferPool buffers = connection.buffers();
+        private ByteBuffer buffer;
+        private int chunkStart = -1;
+        private boolean chunked;
+        private boolean ignoreBody;
+        private long remaining;
+        private boolean closed;
+
+        void start(byte[] head, boolean chunked, long length, boolean ignoreBody) throws IOException {
+            this.chunked = chunked;
+            this.remaining = length;
+            this.ignoreBody = ignoreBody;
+            putRaw(head, 0, head.length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (closed) {
+                throw new IOException("Stream is closed");
+            }
+            if (responseCode < 0) {
+                throw new IOException("sendResponseHeaders() must be called before writing the body");
+            }
+            if (ignoreBody || len == 0) {
+                return;
+            }
+            if (!chunked) {
+                if (len > remaining) {
+                    throw new IOException("Too many bytes to write to stream");
+                }
+                remaining -= len;
+                putRaw(b, off, len);
+                return;
+            }
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = buffers.acquire();
+                }
+                if (chunkStart < 0) {
+                    if (buffer.remaining() <= CHUNK_HEADER + CHUNK_TRAILER) {
+                        flushBuffer();
+                        continue;
+                    }
+                    chunkStart = buffer.position();
+                    buffer.position(chunkStart + CHUNK_HEADER);
+                }
+                int space = buffer.remaining() - CHUNK_TRAILER;
+                if (space == 0) {
+                    flushBuffer();
+                    continue;
+                }
+                int n = Math.min(space, len);
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!closed && buffer != null) {
+                flushBuffer();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (responseCode < 0) {
+                abort();
+                return;
+            }
+            if (!chunked && remaining > 0 && !ignoreBody) {
+                abort();
+                throw new IOException("Insufficient bytes written to stream");
+            }
+            closed = true;
+            if (chunked) {
+                closeChunk();
+                putRaw(LAST_CHUNK, 0, LAST_CHUNK.length);
+            }
+            ByteBuffer last = buffer;
+            buffer = null;
+            if (last != null) {
+                last.flip();
+            }
+            connection.finish(last, closeAfter);
+        }
+
+        /** Отбрасывает неотправленный ответ; false, если ответ уже завершён. */
+        boolean discard() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            if (buffer != null) {
+                buffers.release(buffer);
+                buffer = null;
+            }
+            return true;
+        }
+
+        private void putRaw(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (buffer == null) {
+                    buffer = buffers.acquire();
+                }
+                if (!buffer.hasRemaining()) {
+                    flushBuffer();
+                    continue;
+                }
+                int n = Math.min(buffer.remaining(), len);
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void closeChunk() {
+            if (chunkStart < 0) {
+                return;
+            }
+            int size = buffer.position() - chunkStart - CHUNK_HEADER;
+            if (size == 0) {
+                buffer.position(chunkStart);
+            } else {
+                for (int i = 0; i < 8; i++) {
+                    buffer.put(chunkStart + i, HEX[(size >>> (28 - 4 * i)) & 0xf]);
+                }
+                buffer.put(chunkStart + 8, (byte) '\r');
+                buffer.put(chunkStart + 9, (byte) '\n');
+                buffer.put((byte) '\r').put((byte) '\n');
+            }
+            chunkStart = -1;
+        }
+
+        private void flushBuffer() throws IOException {
+            closeChunk();
+            ByteBuffer data = buffer;
+            buffer = null;
+            if (data.position() == 0) {
+                buffers.release(data);
+                return;
+            }
+            data.flip();
+            connection.send(data);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.OWA.service;
+
+import org.OWA.model.OtpCode;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Активные OTP-коды в памяти, по одному на пару (userId, operationId).
+ * Позволяет отклонять неверный код без обращения к БД; верный код всё равно погашается в БД.
+ * Хранилище локально для экземпляра приложения и рассчитано только на один узел: код,
+ * сгенерированный заново на другом узле, здесь неизвестен и будет отклонён. В кластере
+ * хранилище должно быть выключено (otp.store.enabled=false, по умолчанию).
+ */
+class ActiveOtpStore {
+    private record Key(int userId, String operationId) {}
+
+    private final Map<Key, OtpCode> codes = new ConcurrentHashMap<>();
+
+    /** Сохраняет код и возвращает вытесненный им предыдущий активный код, если он был. */
+    OtpCode put(OtpCode otp) {
+        return codes.put(new Key(otp.getUserId(), otp.getOperationId()), otp);
+    }
+
+    OtpCode get(int userId, String operationId) {
+        return codes.get(new Key(userId, operationId));
+    }
+
+    /** Атомарно удаляет именно этот код; false, если его уже забрал другой поток. */
+    boolean remove(OtpCode otp) {
+        return codes.remove(new Key(otp.getUserId(), otp.getOperationId()), otp);
+    }
+
+    void removeUser(int userId) {
+        codes.keySet().removeIf(key -> key.userId() == userId);
+    }
+
+    int evictExpired(LocalDateTime now) {
+        int before = codes.size();
+        codes.values().removeIf(otp -> otp.getExpiresAt().isBefore(now));
+        return before - codes.size();
+    }
+
+    int size() {
+        return codes.size();
+    }
+}
@@ -0,0 +1,23 @@
+package org.OWA.service;
+
+/**
+ * Запрос отклонён до начала работы, чтобы не перегружать сервис.
+ * QUEUE_FULL — исчерпана общая очередь (сервис перегружен),
+ * CONCURRENCY_LIMIT — превышен лимит одновременных запросов для пользователя или источника.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason { QUEUE_FULL, CONCURRENCY_LIMIT }
+
+    private final Reason reason;
+
+    public AdmissionRejectedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+}
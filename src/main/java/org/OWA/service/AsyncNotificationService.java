@@ -0,0 +1,180 @@
+package org.OWA.service;
+
+import org.OWA.util.AppConfig;
+import org.OWA.util.Metrics;
+import org.OWA.util.RequestTrace;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Асинхронная доставка через канал: sendCode только ставит доставку в ограниченную очередь канала,
+ * а отправку выполняют выделенные рабочие потоки с повторами. Медленный провайдер
+ * занимает только свои потоки и не блокирует потоки HTTP-сервера.
+ *
+ * Настройки канала (notify.&lt;channel&gt;.*): workers, queue.capacity, retries, retry.backoff.ms
+ * и overflow — что делать при заполненной очереди: drop (отказ с NotificationQueueFullException)
+ * или spill (доставка выполняется в вызывающем потоке).
+ */
+public class AsyncNotificationService implements NotificationService {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncNotificationService.class);
+
+    public enum OverflowPolicy { DROP, SPILL }
+
+    private final String channel;
+    private final NotificationService delegate;
+    private final ThreadPoolExecutor workers;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected;
+    private final String traceStage;
+
+    public AsyncNotificationService(String channel, NotificationService delegate) {
+        this.channel = channel;
+        this.delegate = delegate;
+        this.traceStage = "notify.enqueue." + channel;
+        String prefix = "notify." + channel + ".";
+        int threads = AppConfig.getInt(prefix + "workers", 4);
+        if ("file".equals(channel) && "log".equalsIgnoreCase(AppConfig.get("otp.file.mode", "files"))) {
+            // Писатель журнала ждёт общего fsync: одновременных писателей должно хватать на группу
+            threads = AppConfig.getInt("notify.file.log.workers", 32);
+        }
+        int capacity = AppConfig.getInt(prefix + "queue.capacity", 1000);
+        this.maxRetries = AppConfig.getInt(prefix + "retries", 3);
+        this.retryBackoffMs = AppConfig.getLong(prefix + "retry.backoff.ms", 500);
+        this.overflowPolicy = OverflowPolicy.valueOf(AppConfig.get(prefix + "overflow", "drop").toUpperCase());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(capacity), workerFactory(channel), new ThreadPoolExecutor.AbortPolicy());
+        String labels = "channel=\"" + channel + "\"";
+        this.rejected = Metrics.counter("otp_notification_rejected_total",
+            "Deliveries refused because the channel queue was full", labels);
+        Metrics.gauge("otp_notification_queue_depth", "Deliveries waiting in the channel queue", labels, this::getQueueDepth);
+        Metrics.gauge("otp_notification_in_flight", "Deliveries being sent, including retries", labels, this::getInFlight);
+        logger.info("Async {} dispatch: workers={}, queue={}, retries={}, overflow={}",
+            channel, threads, capacity, maxRetries, overflowPolicy);
+    }
+
+    private static ThreadFactory workerFactory(String channel) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "notify-" + channel + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override
+    public void sendCode(String destination, String code) {
+        submit(destination, () -> deliver(destination, code));
+    }
+
+    /**
+     * Весь пакет ставится в очередь одной задачей: при заполненной очереди отклоняется целиком,
+     * и ни один код пакета не уходит, а не часть из них.
+     */
+    @Override
+    public void sendCodes(String destination, Collection<String> codes) {
+        List<String> batch = List.copyOf(codes);
+        submit(destination, () -> {
+            for (String code : batch) {
+                deliver(destination, code);
+            }
+        });
+    }
+
+    private void submit(String destination, Runnable delivery) {
+        if (!delegate.isConfigured()) {
+            throw new IllegalStateException(channel + " notification service is not properly configured");
+        }
+        try {
+            RequestTrace.run(traceStage, () -> workers.execute(delivery));
+        } catch (RejectedExecutionException e) {
+            if (overflowPolicy == OverflowPolicy.SPILL && !workers.isShutdown()) {
+                logger.warn("{} queue is full, delivering in caller thread", channel);
+                delivery.run();
+                return;
+            }
+            rejected.increment();
+            logger.warn("{} queue is full, delivery to {} dropped", channel, destination);
+            throw new NotificationQueueFullException(channel);
+        }
+    }
+
+    private void deliver(String destination, String code) {
+        inFlight.incrementAndGet();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    delegate.sendCode(destination, code);
+                    return;
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // Ошибки данных или конфигурации повтором не исправить
+                    logger.error("{} delivery to {} rejected: {}", channel, destination, e.getMessage());
+                    return;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxRetries) {
+                        logger.error("{} delivery to {} failed after {} attempts", channel, destination, attempt + 1, e);
+                        return;
+                    }
+                    long backoff = retryBackoffMs << attempt;
+                    logger.warn("{} delivery to {} failed (attempt {}), retrying in {} ms",
+                        channel, destination, attempt + 1, backoff);
+                    try {
+                        Thread.sleep(backoff);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        logger.error("{} delivery to {} interrupted", channel, destination);
+                        return;
+                    }
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return delegate.isConfigured();
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public void shutdown(long timeoutMs) {
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                logger.warn("{} dispatch stopped with {} deliveries still queued", channel, workers.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            workers.shutdownNow();
+        }
+        delegate.shutdown();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown(5000);
+    }
+}
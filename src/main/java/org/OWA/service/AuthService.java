@@ -2,25 +2,58 @@ package org.OWA.service;
 
 import org.OWA.dao.UserDao;
 import org.OWA.model.User;
+import org.OWA.util.AppConfig;
 import org.OWA.util.JwtUtil;
+import org.OWA.util.TransactionManager;
 import org.OWA.util.ValidationUtil;
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Optional;
-import org.mindrot.jbcrypt.BCrypt;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class AuthService {
     private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
-    private static final int BCRYPT_WORKLOAD = 12;
+    static final int BCRYPT_WORKLOAD = AppConfig.getInt("auth.bcrypt.cost", 12);
     private final UserDao userDao;
+    private final UserCache userCache;
+    private final PasswordHasher hasher;
+    // Хеширования в работе и в очереди: HTTP-поток ждёт результата, поэтому их меньше пула HTTP
+    private final Semaphore hashingPermits;
+    private final KeyedConcurrencyLimiter perUsername;
+    private final KeyedConcurrencyLimiter perSource;
 
-    public AuthService(Connection conn) {
-        this.userDao = new UserDao(conn);
+    public AuthService(TransactionManager tx) {
+        this.userDao = new UserDao(tx);
+        this.userCache = new UserCache(userDao,
+            AppConfig.getLong("auth.user.cache.ttl.ms", 60_000),
+            AppConfig.getInt("auth.user.cache.max.entries", 10_000));
+        int hasherThreads = AppConfig.getInt("auth.bcrypt.threads", Runtime.getRuntime().availableProcessors());
+        this.hasher = new PasswordHasher(hasherThreads,
+            AppConfig.getInt("auth.bcrypt.queue.capacity", 64),
+            BCRYPT_WORKLOAD);
+        int maxConcurrent = AppConfig.getInt("auth.bcrypt.max.concurrent", 0);
+        if (maxConcurrent <= 0) {
+            // По умолчанию — потоки хеширования плюс столько же в очереди. От пула HTTP не зависит:
+            // при SERVER_EXECUTOR=virtual его размер ничего не значит
+            maxConcurrent = Math.max(1, hasherThreads * 2);
+        }
+        this.hashingPermits = new Semaphore(maxConcurrent);
+        logger.info("Password hashing admission: max {} concurrent requests", maxConcurrent);
+        this.perUsername = new KeyedConcurrencyLimiter(AppConfig.getInt("auth.bcrypt.max.per.username", 2));
+        this.perSource = new KeyedConcurrencyLimiter(AppConfig.getInt("auth.bcrypt.max.per.source", 8));
     }
 
     public boolean register(String username, String password, String role, String email) throws SQLException {
+        return register(username, password, role, email, null);
+    }
+
+    /**
+     * source — адрес клиента для ограничения одновременных хеширований; null отключает это ограничение.
+     * При перегрузке бросает AdmissionRejectedException.
+     */
+    public boolean register(String username, String password, String role, String email, String source) throws SQLException {
         if (username == null || username.isBlank() || username.length() < 3 || username.length() > 64) {
             throw new IllegalArgumentException("Username must be 3-64 characters");
         }
@@ -43,36 +76,96 @@ public class AuthService {
                 throw new IllegalArgumentException("Email is required for USER and must be valid");
             }
         }
-        String hashed = hashPassword(password);
+        String hashed = admit(username, source, () -> hasher.hash(password));
         userDao.save(new User(0, username, hashed, role, email));
+        userCache.invalidate(username);
         logger.info("User registered: {}", username);
         return true;
     }
 
     public Optional<String> login(String username, String password) throws SQLException {
+        return login(username, password, null);
+    }
+
+    /** См. register: source ограничивает параллельные попытки входа с одного адреса. */
+    public Optional<String> login(String username, String password, String source) throws SQLException {
         Optional<User> userOpt = userDao.findByUsername(username);
-        if (userOpt.isPresent() && checkPassword(password, userOpt.get().getPassword())) {
-            logger.info("User logged in: {}", username);
-            return Optional.of(JwtUtil.generateToken(userOpt.get()));
+        if (userOpt.isPresent()) {
+            User user = userOpt.get();
+            if (admit(username, source, () -> hasher.check(password, user.getPassword()))) {
+                if (hasher.needsRehash(user.getPassword())) {
+                    rehash(user, password);
+                }
+                logger.debug("User logged in: {}", username);
+                return Optional.of(JwtUtil.generateToken(user));
+            }
         }
         logger.warn("Login failed for user: {}", username);
         return Optional.empty();
     }
 
+    /** Пользователь для проверки запроса (из кэша, без хеша пароля). */
     public Optional<User> getUser(String username) throws SQLException {
-        return userDao.findByUsername(username);
+        return userCache.get(username);
+    }
+
+    /** Сбрасывает кэшированного пользователя после его изменения или удаления. */
+    public void evictUser(String username) {
+        userCache.invalidate(username);
     }
 
-    private String hashPassword(String password) {
-        return BCrypt.hashpw(password, BCrypt.gensalt(BCRYPT_WORKLOAD));
+    public void shutdown() {
+        hasher.shutdown();
     }
 
-    private boolean checkPassword(String password, String hashedPassword) {
+    /**
+     * Пропускает хеширование только при свободном месте; ждать его HTTP-поток не будет.
+     * Общий лимит исчерпан — QUEUE_FULL (503), лимит на имя или адрес — CONCURRENCY_LIMIT (429).
+     */
+    private <T> T admit(String username, String source, Supplier<T> work) {
+        if (!hashingPermits.tryAcquire()) {
+            throw new AdmissionRejectedException(AdmissionRejectedException.Reason.QUEUE_FULL,
+                "Too many concurrent password hashing requests");
+        }
         try {
-            return BCrypt.checkpw(password, hashedPassword);
-        } catch (IllegalArgumentException e) {
-            logger.warn("Invalid hash format encountered", e);
-            return false;
+            return admitKeyed(username, source, work);
+        } finally {
+            hashingPermits.release();
         }
     }
+
+    private <T> T admitKeyed(String username, String source, Supplier<T> work) {
+        if (!perUsername.tryAcquire(username)) {
+            throw new AdmissionRejectedException(AdmissionRejectedException.Reason.CONCURRENCY_LIMIT,
+                "Too many concurrent requests for user " + username);
+        }
+        try {
+            if (source != null && !perSource.tryAcquire(source)) {
+                throw new AdmissionRejectedException(AdmissionRejectedException.Reason.CONCURRENCY_LIMIT,
+                    "Too many concurrent requests from " + source);
+            }
+            try {
+                return work.get();
+            } finally {
+                if (source != null) {
+                    perSource.release(source);
+                }
+            }
+        } finally {
+            perUsername.release(username);
+        }
+    }
+
+    /** Хеш со стоимостью ниже настроенной заменяется в фоне, пока известен открытый пароль. */
+    private void rehash(User user, String password) {
+        hasher.rehashAsync(password, hashed -> {
+            try {
+                userDao.updatePassword(user.getId(), hashed);
+                userCache.invalidate(user.getUsername());
+                logger.info("Password rehashed with cost {} for user: {}", BCRYPT_WORKLOAD, user.getUsername());
+            } catch (SQLException e) {
+                logger.error("Failed to store rehashed password for user: {}", user.getUsername(), e);
+            }
+        });
+    }
 }
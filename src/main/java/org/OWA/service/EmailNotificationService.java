@@ -8,14 +8,27 @@ import org.slf4j.LoggerFactory;
 
 public class EmailNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(EmailNotificationService.class);
+    // Шаблон письма разбит вокруг кода заранее, чтобы не разбирать формат на каждое письмо
+    private static final String HTML_BEFORE_CODE =
+        "<html><body>" +
+        "<h2>Your OTP Verification Code</h2>" +
+        "<p>Your verification code is: <strong>";
+    private static final String HTML_AFTER_CODE =
+        "</strong></p>" +
+        "<p>This code will expire soon. Please do not share this code with anyone.</p>" +
+        "</body></html>";
     private final String username;
     private final String password;
     private final String fromEmail;
     private final Session session;
+    private final InternetAddress fromAddress;
+    private final SmtpTransportPool transportPool;
     private boolean isInitialized;
 
     public EmailNotificationService() {
         Properties config = loadConfig();
+        InternetAddress from = null;
+        SmtpTransportPool pool = null;
         this.username = config.getProperty("email.username");
         this.password = config.getProperty("email.password");
         this.fromEmail = config.getProperty("email.from");
@@ -33,12 +46,23 @@ public class EmailNotificationService implements NotificationService {
                     return new PasswordAuthentication(username, password);
                 }
             });
-            this.isInitialized = true;
+            try {
+                from = new InternetAddress(fromEmail);
+                pool = new SmtpTransportPool(session,
+                    Integer.parseInt(config.getProperty("email.pool.size", "4")),
+                    Integer.parseInt(config.getProperty("email.pool.max.messages.per.connection", "100")),
+                    Long.parseLong(config.getProperty("email.pool.borrow.timeout.ms", "10000")));
+            } catch (MessagingException e) {
+                logger.error("Failed to initialize SMTP transport pool", e);
+            }
+            this.isInitialized = pool != null;
         } else {
             this.session = null;
             this.isInitialized = false;
             logger.warn("Email notification service not properly configured");
         }
+        this.fromAddress = from;
+        this.transportPool = pool;
     }
 
     private Properties loadConfig() {
@@ -74,24 +98,15 @@ public class EmailNotificationService implements NotificationService {
 
         try {
             Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(fromEmail));
+            message.setFrom(fromAddress);
             message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
             message.setSubject("Your OTP Code");
             
-            // Create HTML content for better presentation
-            String htmlContent = String.format(
-                "<html><body>" +
-                "<h2>Your OTP Verification Code</h2>" +
-                "<p>Your verification code is: <strong>%s</strong></p>" +
-                "<p>This code will expire soon. Please do not share this code with anyone.</p>" +
-                "</body></html>",
-                code
-            );
-
-            message.setContent(htmlContent, "text/html; charset=utf-8");
+            message.setContent(HTML_BEFORE_CODE + code + HTML_AFTER_CODE, "text/html; charset=utf-8");
+            message.saveChanges();
 
-            Transport.send(message);
-            logger.info("OTP email sent successfully to {}", toEmail);
+            transportPool.send(message);
+            logger.debug("OTP email sent successfully to {}", toEmail);
         } catch (AddressException e) {
             logger.error("Invalid email address: {}", toEmail, e);
             throw new IllegalArgumentException("Invalid email address: " + toEmail, e);
@@ -101,6 +116,13 @@ public class EmailNotificationService implements NotificationService {
         }
     }
 
+    @Override
+    public void shutdown() {
+        if (transportPool != null) {
+            transportPool.shutdown();
+        }
+    }
+
     @Override
     public boolean isConfigured() {
         return username != null && !username.isEmpty() &&
@@ -13,6 +13,8 @@ public class FileNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(FileNotificationService.class);
     private final String directory;
     private final boolean isConfigured;
+    // null в режиме files: каждый код пишется в отдельный файл
+    private final OtpSegmentLog segmentLog;
 
     public FileNotificationService() {
         Properties props = new Properties();
@@ -38,6 +40,8 @@ public class FileNotificationService implements NotificationService {
         this.directory = configuredDir;
         
         // Проверяем доступность директории
+        boolean writable = false;
+        OtpSegmentLog log = null;
         try {
             Path dirPath = new File(directory).toPath();
             if (!Files.exists(dirPath)) {
@@ -45,15 +49,24 @@ public class FileNotificationService implements NotificationService {
             }
             if (!Files.isWritable(dirPath)) {
                 logger.error("Directory {} is not writable", directory);
-                this.isConfigured = false;
-                return;
+            } else {
+                writable = true;
+                if ("log".equalsIgnoreCase(props.getProperty("otp.file.mode", "files"))) {
+                    log = new OtpSegmentLog(dirPath,
+                        Long.parseLong(props.getProperty("otp.file.log.segment.max.bytes", "67108864")),
+                        Long.parseLong(props.getProperty("otp.file.log.segment.max.age.ms", "3600000")),
+                        Boolean.parseBoolean(props.getProperty("otp.file.log.fsync", "true")),
+                        Long.parseLong(props.getProperty("otp.file.log.fsync.interval.ms", "5")));
+                }
+                logger.info("File notification service configured with directory: {} ({} mode)",
+                    directory, log != null ? "log" : "files");
             }
-            this.isConfigured = true;
-            logger.info("File notification service configured with directory: {}", directory);
         } catch (Exception e) {
             logger.error("Failed to setup file notification directory: {}", directory, e);
-            this.isConfigured = false;
+            writable = false;
         }
+        this.isConfigured = writable;
+        this.segmentLog = log;
     }
 
     @Override
@@ -62,6 +75,17 @@ public class FileNotificationService implements NotificationService {
             throw new IllegalStateException("File notification service is not properly configured");
         }
 
+        if (segmentLog != null) {
+            try {
+                segmentLog.append(destination, code, System.currentTimeMillis());
+                logger.debug("OTP code appended to log for user {}", destination);
+            } catch (IOException e) {
+                logger.error("Failed to append OTP to log for user {}", destination, e);
+                throw new RuntimeException("Failed to save OTP to file", e);
+            }
+            return;
+        }
+
         File dir = new File(directory);
         String sanitizedUsername = sanitizeFilename(destination);
         String timestamp = String.valueOf(System.currentTimeMillis());
@@ -70,13 +94,20 @@ public class FileNotificationService implements NotificationService {
         try (FileWriter fw = new FileWriter(file)) {
             fw.write(String.format("OTP code for %s%nCode: %s%nGenerated: %s%n", 
                 destination, code, new java.util.Date()));
-            logger.info("OTP code saved to file for user {} at {}", destination, file.getAbsolutePath());
+            logger.debug("OTP code saved to file for user {} at {}", destination, file.getAbsolutePath());
         } catch (IOException e) {
             logger.error("Failed to save OTP to file for user {}", destination, e);
             throw new RuntimeException("Failed to save OTP to file", e);
         }
     }
 
+    @Override
+    public void shutdown() {
+        if (segmentLog != null) {
+            segmentLog.close();
+        }
+    }
+
     @Override
     public boolean isConfigured() {
         return isConfigured;
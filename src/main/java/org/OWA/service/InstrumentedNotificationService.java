@@ -0,0 +1,50 @@
+package org.OWA.service;
+
+import org.OWA.util.Metrics;
+import org.OWA.util.RequestTrace;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Замеряет время и исход каждого вызова sendCode канала (метрики otp_notification_*). */
+public class InstrumentedNotificationService implements NotificationService {
+    private final NotificationService delegate;
+    private final Metrics.Timer latency;
+    private final LongAdder successes;
+    private final LongAdder failures;
+    private final String traceStage;
+
+    public InstrumentedNotificationService(String channel, NotificationService delegate) {
+        this.delegate = delegate;
+        this.traceStage = "notify.send." + channel;
+        String labels = "channel=\"" + channel + "\"";
+        this.latency = Metrics.timer("otp_notification_send_duration_seconds",
+            "Duration of provider sendCode calls", labels);
+        this.successes = Metrics.counter("otp_notification_sends_total",
+            "Provider sendCode calls by outcome", labels + ",result=\"success\"");
+        this.failures = Metrics.counter("otp_notification_sends_total",
+            "Provider sendCode calls by outcome", labels + ",result=\"failure\"");
+    }
+
+    @Override
+    public void sendCode(String destination, String code) {
+        long start = System.nanoTime();
+        try {
+            RequestTrace.run(traceStage, () -> delegate.sendCode(destination, code));
+            successes.increment();
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            latency.stop(start);
+        }
+    }
+
+    @Override
+    public boolean isConfigured() {
+        return delegate.isConfigured();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+}
@@ -0,0 +1,34 @@
+package org.OWA.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ограничивает число одновременных операций для каждого ключа (имя пользователя, адрес клиента).
+ * Счётчики с нулевым значением удаляются, поэтому память растёт только с числом активных ключей.
+ */
+class KeyedConcurrencyLimiter {
+    private final int maxPerKey;
+    private final Map<String, Integer> active = new ConcurrentHashMap<>();
+
+    KeyedConcurrencyLimiter(int maxPerKey) {
+        this.maxPerKey = maxPerKey;
+    }
+
+    boolean tryAcquire(String key) {
+        boolean[] acquired = new boolean[1];
+        active.compute(key, (k, count) -> {
+            int current = count == null ? 0 : count;
+            if (current >= maxPerKey) {
+                return count;
+            }
+            acquired[0] = true;
+            return current + 1;
+        });
+        return acquired[0];
+    }
+
+    void release(String key) {
+        active.computeIfPresent(key, (k, count) -> count <= 1 ? null : count - 1);
+    }
+}
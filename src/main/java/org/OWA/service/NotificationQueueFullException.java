@@ -0,0 +1,9 @@
+package org.OWA.service;
+
+public class NotificationQueueFullException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public NotificationQueueFullException(String channel) {
+        super("Notification queue for channel '" + channel + "' is full");
+    }
+}
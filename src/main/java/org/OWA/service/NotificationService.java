@@ -1,6 +1,18 @@
 package org.OWA.service;
 
+import java.util.Collection;
+
 public interface NotificationService {
     void sendCode(String destination, String code);
     boolean isConfigured();
+
+    /** Отправляет несколько кодов одному адресату; по умолчанию — по одному через sendCode. */
+    default void sendCodes(String destination, Collection<String> codes) {
+        for (String code : codes) {
+            sendCode(destination, code);
+        }
+    }
+
+    /** Освобождает соединения канала при остановке сервера. */
+    default void shutdown() {}
 }
@@ -0,0 +1,152 @@
+package org.OWA.service;
+
+import org.OWA.dao.OtpConfigDao;
+import org.OWA.model.OtpConfig;
+import org.OWA.util.DatabaseConfig;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Неизменяемый снимок otp_config в памяти. Изменение через update() пишет в БД и отправляет
+ * NOTIFY, по которому остальные экземпляры перечитывают настройки. Независимо от слушателя
+ * снимок перечитывается раз в refreshIntervalMs: это страховка от потерянных уведомлений
+ * и единственный способ узнать об изменениях, если LISTEN выключен.
+ */
+class OtpConfigCache {
+    private static final Logger logger = LoggerFactory.getLogger(OtpConfigCache.class);
+    private static final int POLL_TIMEOUT_MS = 1000;
+    private static final long RECONNECT_DELAY_MS = 5000;
+
+    private final OtpConfigDao otpConfigDao;
+    private final long refreshIntervalMs;
+    private volatile OtpConfig snapshot;
+    // Растёт при каждом update(): refresh, начавшийся до него, не затрёт новый снимок
+    private long generation;
+    private volatile boolean running;
+    private Thread listener;
+    private ScheduledExecutorService refresher;
+
+    OtpConfigCache(OtpConfigDao otpConfigDao, long refreshIntervalMs) {
+        this.otpConfigDao = otpConfigDao;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    OtpConfig get() throws SQLException {
+        OtpConfig current = snapshot;
+        if (current == null) {
+            current = refresh();
+        }
+        return current;
+    }
+
+    void update(int codeLength, int ttlSeconds) throws SQLException {
+        otpConfigDao.updateConfig(codeLength, ttlSeconds);
+        synchronized (this) {
+            generation++;
+            snapshot = new OtpConfig(codeLength, ttlSeconds);
+        }
+    }
+
+    /**
+     * Перечитывает настройки из БД. Если за время чтения прошёл update(), прочитанная строка
+     * могла быть старой: снимок не меняется, а возвращается уже установленный update().
+     */
+    OtpConfig refresh() throws SQLException {
+        long startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+        }
+        OtpConfig loaded = otpConfigDao.getConfig();
+        synchronized (this) {
+            if (generation != startGeneration) {
+                return snapshot;
+            }
+            snapshot = loaded;
+            return loaded;
+        }
+    }
+
+    /** Запускает периодическое перечитывание снимка (refreshIntervalMs &lt;= 0 — не перечитывать). */
+    synchronized void startRefresher() {
+        if (refresher != null || refreshIntervalMs <= 0) {
+            return;
+        }
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "otp-config-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Запускает фоновый поток LISTEN на отдельном (не из пула) соединении. */
+    synchronized void startListener() {
+        if (running) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listenLoop, "otp-config-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    private void listenLoop() {
+        while (running) {
+            try (Connection conn = DatabaseConfig.openDedicatedConnection()) {
+                conn.setAutoCommit(true);
+                try (Statement st = conn.createStatement()) {
+                    st.execute("LISTEN " + OtpConfigDao.CHANGE_CHANNEL);
+                }
+                // Пока соединения не было, уведомления могли потеряться
+                refreshQuietly();
+                PGConnection pg = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(POLL_TIMEOUT_MS);
+                    if (notifications != null && notifications.length > 0) {
+                        logger.info("OTP config change notification received");
+                        refreshQuietly();
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                // RuntimeException тоже: иначе поток слушателя молча завершился бы
+                if (!running) {
+                    return;
+                }
+                logger.warn("OTP config listener connection lost, reconnecting in {} ms: {}", RECONNECT_DELAY_MS, e.getMessage());
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void refreshQuietly() {
+        try {
+            OtpConfig loaded = refresh();
+            logger.debug("OTP config refreshed: codeLength={}, ttlSeconds={}", loaded.getCodeLength(), loaded.getTtlSeconds());
+        } catch (SQLException | RuntimeException e) {
+            // Исключение из задачи по расписанию отменило бы все следующие перечитывания
+            logger.error("Failed to refresh OTP config", e);
+        }
+    }
+
+    synchronized void shutdown() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+        }
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+}
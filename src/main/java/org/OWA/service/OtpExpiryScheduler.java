@@ -1,29 +1,108 @@
 package org.OWA.service;
 
-import java.sql.Connection;
-import java.util.Timer;
-import java.util.TimerTask;
+import org.OWA.util.AppConfig;
+import org.OWA.util.Metrics;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Фоновое истечение OTP-кодов порциями. Интервал истечения подстраивается под объём:
+ * пока есть хвост, следующий проход запускается через minIntervalMs, а когда истекать нечего,
+ * интервал удваивается до maxIntervalMs. Отдельная задача создаёт секции otp_codes заранее,
+ * удаляет вышедшие за срок хранения и следит, чтобы секция DEFAULT оставалась пустой.
+ */
 public class OtpExpiryScheduler {
     private static final Logger logger = LoggerFactory.getLogger(OtpExpiryScheduler.class);
-    private final Timer timer = new Timer(true);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "otp-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+    private final OtpService otpService;
+    private final int chunkSize;
+    private final int maxChunks;
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final Duration retention;
+    private final int premakeDays;
+    private final Metrics.Timer expiryDuration = Metrics.timer("otp_expiry_run_duration_seconds",
+        "Duration of one OTP expiry run", "");
+    private final LongAdder expiredRows = Metrics.counter("otp_expiry_rows_total",
+        "OTP codes marked EXPIRED by the scheduler", "");
+    private final LongAdder expiryFailures = Metrics.counter("otp_scheduler_failures_total",
+        "Failed scheduler runs by task", "task=\"expiry\"");
+    private final Metrics.Timer maintenanceDuration = Metrics.timer("otp_partition_maintenance_duration_seconds",
+        "Duration of one otp_codes partition maintenance run", "");
+    private final LongAdder maintenanceFailures = Metrics.counter("otp_scheduler_failures_total",
+        "Failed scheduler runs by task", "task=\"partitions\"");
+    private volatile long intervalMs;
+    private volatile long defaultPartitionRows;
 
-    public OtpExpiryScheduler(Connection conn, OtpService otpService) {
-        timer.scheduleAtFixedRate(new TimerTask() {
-            public void run() {
-                try {
-                    otpService.expireOtps();
-                } catch (Exception e) {
-                    logger.error("Error expiring OTP codes", e);
-                }
+    public OtpExpiryScheduler(OtpService otpService) {
+        this.otpService = otpService;
+        this.chunkSize = AppConfig.getInt("otp.expiry.chunk.size", 1000);
+        this.maxChunks = AppConfig.getInt("otp.expiry.max.chunks.per.run", 20);
+        this.minIntervalMs = AppConfig.getLong("otp.expiry.min.interval.ms", 1000);
+        this.maxIntervalMs = AppConfig.getLong("otp.scheduler.interval", 60) * 1000;
+        this.retention = Duration.ofHours(AppConfig.getLong("otp.retention.hours", 168));
+        this.premakeDays = AppConfig.getInt("otp.partition.premake.days", 3);
+        this.intervalMs = minIntervalMs;
+        Metrics.gauge("otp_expiry_interval_seconds", "Current delay between OTP expiry runs", "", () -> intervalMs / 1000.0);
+        Metrics.gauge("otp_partition_default_rows", "Rows in the otp_codes DEFAULT partition (should be 0)", "",
+            () -> defaultPartitionRows);
+        executor.schedule(this::expire, 0, TimeUnit.MILLISECONDS);
+        long maintenanceIntervalMs = AppConfig.getLong("otp.partition.maintenance.interval.ms", 3_600_000);
+        executor.scheduleWithFixedDelay(this::maintainPartitions, 0, maintenanceIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire() {
+        long start = System.nanoTime();
+        try {
+            int expired = otpService.expireOtps(chunkSize, maxChunks);
+            expiredRows.add(expired);
+            if (expired >= chunkSize * maxChunks) {
+                intervalMs = minIntervalMs;
+            } else if (expired == 0) {
+                intervalMs = Math.min(intervalMs * 2, maxIntervalMs);
+            } else {
+                intervalMs = Math.max(intervalMs / 2, minIntervalMs);
+            }
+        } catch (Exception e) {
+            expiryFailures.increment();
+            logger.error("Error expiring OTP codes", e);
+            intervalMs = maxIntervalMs;
+        } finally {
+            expiryDuration.stop(start);
+        }
+        if (!executor.isShutdown()) {
+            logger.debug("Next OTP expiry run in {} ms", intervalMs);
+            executor.schedule(this::expire, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void maintainPartitions() {
+        long start = System.nanoTime();
+        try {
+            defaultPartitionRows = otpService.maintainPartitions(premakeDays, retention);
+            if (defaultPartitionRows > 0) {
+                logger.warn("{} OTP rows are in the DEFAULT partition: their days have no partition "
+                    + "(clock skew or maintenance falling behind)", defaultPartitionRows);
             }
-        }, 0, 60_000); // every 60 seconds
+        } catch (Exception e) {
+            maintenanceFailures.increment();
+            logger.error("Error maintaining OTP partitions", e);
+        } finally {
+            maintenanceDuration.stop(start);
+        }
     }
 
     public void shutdown() {
-        timer.cancel();
+        executor.shutdownNow();
         logger.info("OtpExpiryScheduler stopped");
     }
 }
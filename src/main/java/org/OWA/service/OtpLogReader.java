@@ -0,0 +1,84 @@
+package org.OWA.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Утилита для поиска записей журнала OTP (см. OtpSegmentLog) по адресату.
+ *
+ * Использование: java -cp PromoOTP.jar org.OWA.service.OtpLogReader &lt;каталог&gt; [адресат]
+ * Без адресата выводятся все записи. Повреждённый хвост сегмента (недописанная запись) пропускается.
+ */
+public class OtpLogReader {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: OtpLogReader <directory> [destination]");
+            System.exit(2);
+        }
+        Path dir = Paths.get(args[0]);
+        String destination = args.length > 1 ? args[1] : null;
+        for (Path segment : segments(dir)) {
+            read(segment, destination);
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files
+                .filter(p -> {
+                    String name = p.getFileName().toString();
+                    return name.startsWith(OtpSegmentLog.SEGMENT_PREFIX) && name.endsWith(OtpSegmentLog.SEGMENT_SUFFIX);
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static void read(Path segment, String destination) throws IOException {
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            CRC32 crc = new CRC32();
+            while (buf.remaining() >= Integer.BYTES) {
+                int recordStart = buf.position();
+                int payload = buf.getInt();
+                if (payload <= 0 || buf.remaining() < payload + Integer.BYTES) {
+                    System.err.printf("%s: truncated record at offset %d%n", segment.getFileName(), recordStart);
+                    return;
+                }
+                ByteBuffer body = buf.slice();
+                body.limit(payload);
+                crc.reset();
+                crc.update(body.duplicate());
+                buf.position(buf.position() + payload);
+                if ((int) crc.getValue() != buf.getInt()) {
+                    System.err.printf("%s: checksum mismatch at offset %d%n", segment.getFileName(), recordStart);
+                    return;
+                }
+                long timestamp = body.getLong();
+                String dest = readString(body);
+                String code = readString(body);
+                if (destination == null || destination.equals(dest)) {
+                    System.out.printf("%s\t%s\t%s\t%s%n", Instant.ofEpochMilli(timestamp), dest, code, segment.getFileName());
+                }
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[Short.toUnsignedInt(body.getShort())];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
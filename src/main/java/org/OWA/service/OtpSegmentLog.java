@@ -0,0 +1,202 @@
+package org.OWA.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Журнал OTP-кодов из сегментов только на дозапись. Каждая запись имеет формат
+ * [int длина][long время, мс][short длина адресата][адресат UTF-8][short длина кода][код][int CRC32],
+ * где длина и CRC покрывают всё между ними. Сегмент закрывается по размеру или возрасту.
+ *
+ * fsync выполняется группами: писатели добавляют записи в канал и ждут, пока фоновый поток
+ * одним force() не сделает устойчивыми все накопившиеся записи. Размер группы ограничен числом
+ * одновременных писателей, поэтому у канала file в этом режиме свой пул (notify.file.log.workers).
+ */
+class OtpSegmentLog {
+    private static final Logger logger = LoggerFactory.getLogger(OtpSegmentLog.class);
+    static final String SEGMENT_PREFIX = "otp-";
+    static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final long maxSegmentAgeMs;
+    private final long fsyncIntervalMs;
+    private final boolean fsync;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+
+    // Состояние ниже защищено монитором this
+    private FileChannel segment;
+    private long segmentBytes;
+    private long segmentOpenedAt;
+    private int segmentCounter;
+    private long appendedSeq;
+    private long durableSeq;
+    // Наибольший номер записи, попавшей в неудачный force(). Водяной знак, а не диапазон: два
+    // сбоя подряд не должны «вылечить» записи первого, чьи писатели ещё не проснулись.
+    // Запись до него, на деле уже устойчивая, тоже сочтётся неудачной — это лишь повтор доставки.
+    private long failedUpToSeq;
+    private volatile boolean closed;
+
+    OtpSegmentLog(Path directory, long maxSegmentBytes, long maxSegmentAgeMs, boolean fsync, long fsyncIntervalMs) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxSegmentAgeMs = maxSegmentAgeMs;
+        this.fsync = fsync;
+        this.fsyncIntervalMs = fsyncIntervalMs;
+        roll();
+        this.flusher = new Thread(this::flushLoop, "otp-log-fsync");
+        flusher.setDaemon(true);
+        if (fsync) {
+            flusher.start();
+        }
+    }
+
+    /** Дописывает запись и, если включён fsync, возвращается только после её сброса на диск. */
+    void append(String destination, String code, long timestampMillis) throws IOException {
+        long seq;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("OTP log is closed");
+            }
+            if (segmentBytes >= maxSegmentBytes || System.currentTimeMillis() - segmentOpenedAt >= maxSegmentAgeMs) {
+                roll();
+            }
+            encode(buffer, crc, destination, code, timestampMillis);
+            while (buffer.hasRemaining()) {
+                segmentBytes += segment.write(buffer);
+            }
+            seq = ++appendedSeq;
+            notifyAll();
+        }
+        if (fsync) {
+            awaitDurable(seq);
+        }
+    }
+
+    private synchronized void awaitDurable(long seq) throws IOException {
+        try {
+            while (durableSeq < seq) {
+                if (closed) {
+                    throw new IOException("OTP log closed before record became durable");
+                }
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for fsync", e);
+        }
+        if (seq <= failedUpToSeq) {
+            throw new IOException("fsync failed for OTP log record");
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            FileChannel target;
+            long targetSeq;
+            try {
+                synchronized (this) {
+                    while (appendedSeq == durableSeq && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                }
+                // Даём набраться группе записей, затем один force() на всех
+                if (fsyncIntervalMs > 0) {
+                    Thread.sleep(fsyncIntervalMs);
+                }
+                synchronized (this) {
+                    if (closed) {
+                        return;
+                    }
+                    target = segment;
+                    targetSeq = appendedSeq;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                target.force(false);
+                markDurable(targetSeq, false);
+            } catch (ClosedChannelException e) {
+                // Сегмент сменился во время force(): roll() уже сбросил его на диск
+                markDurable(targetSeq, false);
+            } catch (IOException e) {
+                logger.error("OTP log fsync failed", e);
+                markDurable(targetSeq, true);
+            }
+        }
+    }
+
+    private synchronized void markDurable(long seq, boolean failed) {
+        if (failed) {
+            failedUpToSeq = Math.max(failedUpToSeq, seq);
+        }
+        durableSeq = Math.max(durableSeq, seq);
+        notifyAll();
+    }
+
+    private void roll() throws IOException {
+        if (segment != null) {
+            if (fsync) {
+                segment.force(false);
+            }
+            segment.close();
+        }
+        long now = System.currentTimeMillis();
+        String name = String.format("%s%013d-%04d%s", SEGMENT_PREFIX, now, segmentCounter++ % 10000, SEGMENT_SUFFIX);
+        segment = FileChannel.open(directory.resolve(name),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = segment.size();
+        segmentOpenedAt = now;
+        logger.info("OTP log segment opened: {}", name);
+    }
+
+    static void encode(ByteBuffer buf, CRC32 crc, String destination, String code, long timestampMillis) {
+        byte[] dest = destination.getBytes(StandardCharsets.UTF_8);
+        byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+        int payload = Long.BYTES + Short.BYTES + dest.length + Short.BYTES + codeBytes.length;
+        buf.clear();
+        buf.putInt(payload);
+        int start = buf.position();
+        buf.putLong(timestampMillis);
+        buf.putShort((short) dest.length).put(dest);
+        buf.putShort((short) codeBytes.length).put(codeBytes);
+        crc.reset();
+        ByteBuffer view = buf.duplicate();
+        view.flip().position(start);
+        crc.update(view);
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+    }
+
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                segment.force(false);
+                durableSeq = appendedSeq;
+                segment.close();
+            } catch (IOException e) {
+                logger.error("Failed to close OTP log segment", e);
+            }
+            notifyAll();
+        }
+        flusher.interrupt();
+    }
+}
@@ -2,12 +2,22 @@ package org.OWA.service;
 
 import org.OWA.dao.OtpCodeDao;
 import org.OWA.dao.OtpConfigDao;
+import org.OWA.dao.OtpPartitionDao;
 import org.OWA.model.OtpCode;
 import org.OWA.model.OtpConfig;
-import java.sql.Connection;
+import org.OWA.util.AppConfig;
+import org.OWA.util.RequestTrace;
+import org.OWA.util.TransactionManager;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.security.SecureRandom;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,11 +26,23 @@ public class OtpService {
     private static final Logger logger = LoggerFactory.getLogger(OtpService.class);
     private static final SecureRandom RANDOM = new SecureRandom();
     private final OtpCodeDao otpCodeDao;
-    private final OtpConfigDao otpConfigDao;
+    private final OtpPartitionDao partitionDao;
+    private final OtpConfigCache configCache;
+    private final int maxBatchSize;
+    // null, если хранилище активных кодов в памяти отключено
+    private final ActiveOtpStore activeStore;
 
-    public OtpService(Connection conn) {
-        this.otpCodeDao = new OtpCodeDao(conn);
-        this.otpConfigDao = new OtpConfigDao(conn);
+    public OtpService(TransactionManager tx) {
+        this.otpCodeDao = new OtpCodeDao(tx);
+        this.partitionDao = new OtpPartitionDao(tx);
+        this.maxBatchSize = AppConfig.getInt("otp.batch.max.size", 100);
+        this.configCache = new OtpConfigCache(new OtpConfigDao(tx),
+            AppConfig.getLong("otp.config.refresh.interval.ms", 60_000));
+        configCache.startRefresher();
+        if (AppConfig.getBoolean("otp.config.listen.enabled", true)) {
+            configCache.startListener();
+        }
+        this.activeStore = AppConfig.getBoolean("otp.store.enabled", false) ? new ActiveOtpStore() : null;
     }
 
     public String generateOtp(int userId, String operationId) throws SQLException {
@@ -31,7 +53,7 @@ public class OtpService {
             throw new IllegalArgumentException("operationId must not be empty and max 64 chars");
         }
 
-        OtpConfig config = otpConfigDao.getConfig();
+        OtpConfig config = RequestTrace.stage("otp.config", configCache::get);
         int length = config.getCodeLength();
         if (length < 4 || length > 12) {
             throw new IllegalArgumentException("OTP length must be 4-12");
@@ -41,11 +63,70 @@ public class OtpService {
         LocalDateTime now = LocalDateTime.now();
         LocalDateTime expires = now.plusSeconds(config.getTtlSeconds());
         OtpCode otp = new OtpCode(0, userId, operationId, code, "ACTIVE", now, expires);
-        otpCodeDao.save(otp);
-        logger.info("Generated OTP for user {} operation {}", userId, operationId);
+        int id = otpCodeDao.save(otp);
+        if (activeStore != null) {
+            // Прежний код операции уже помечен EXPIRED в транзакции вставки
+            activeStore.put(new OtpCode(id, userId, operationId, code, "ACTIVE", now, expires));
+        }
+        logger.debug("Generated OTP for user {} operation {}", userId, operationId);
         return code;
     }
 
+    /**
+     * Проверяет пакет operationId (размер, длина, повторы) без генерации кодов —
+     * чтобы отклонить некорректный пакет до расхода лимитов. IllegalArgumentException при ошибке.
+     */
+    public void validateBatch(List<String> operationIds) {
+        if (operationIds == null || operationIds.isEmpty() || operationIds.size() > maxBatchSize) {
+            throw new IllegalArgumentException("Batch must contain 1-" + maxBatchSize + " operationIds");
+        }
+        Set<String> seen = new HashSet<>();
+        for (String operationId : operationIds) {
+            if (operationId == null || operationId.trim().isEmpty() || operationId.length() > 64) {
+                throw new IllegalArgumentException("operationId must not be empty and max 64 chars");
+            }
+            if (!seen.add(operationId)) {
+                throw new IllegalArgumentException("Duplicate operationId in batch: " + operationId);
+            }
+        }
+    }
+
+    /**
+     * Генерирует коды для нескольких операций за один проход: одна загрузка настроек
+     * и одна пакетная вставка в одной транзакции. Возвращает operationId -> код в порядке запроса.
+     */
+    public Map<String, String> generateOtpBatch(int userId, List<String> operationIds) throws SQLException {
+        if (userId <= 0) {
+            throw new IllegalArgumentException("userId must be positive");
+        }
+        validateBatch(operationIds);
+
+        OtpConfig config = configCache.get();
+        int length = config.getCodeLength();
+        if (length < 4 || length > 12) {
+            throw new IllegalArgumentException("OTP length must be 4-12");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime expires = now.plusSeconds(config.getTtlSeconds());
+        List<OtpCode> batch = new ArrayList<>(operationIds.size());
+        for (String operationId : operationIds) {
+            batch.add(new OtpCode(0, userId, operationId, randomCode(length), "ACTIVE", now, expires));
+        }
+        List<Integer> ids = otpCodeDao.saveAll(batch);
+        Map<String, String> codes = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            OtpCode otp = batch.get(i);
+            if (activeStore != null) {
+                activeStore.put(new OtpCode(ids.get(i), userId, otp.getOperationId(),
+                    otp.getCode(), "ACTIVE", now, expires));
+            }
+            codes.put(otp.getOperationId(), otp.getCode());
+        }
+        logger.debug("Generated {} OTPs in batch for user {}", codes.size(), userId);
+        return codes;
+    }
+
     public boolean validateOtp(int userId, String operationId, String code) throws SQLException {
         if (operationId == null || operationId.trim().isEmpty() || operationId.length() > 64) {
             throw new IllegalArgumentException("operationId must not be empty and max 64 chars");
@@ -53,22 +134,100 @@ public class OtpService {
         if (code == null || code.trim().isEmpty() || code.length() < 4 || code.length() > 12) {
             throw new IllegalArgumentException("code must be 4-12 digits");
         }
-        Optional<OtpCode> otpOpt = otpCodeDao.findActiveByUserAndOp(userId, operationId);
-        if (otpOpt.isPresent() && otpOpt.get().getCode().equals(code)) {
-            logger.info("OTP validated for user {} operation {}", userId, operationId);
-            otpCodeDao.updateStatus(otpOpt.get().getId(), "USED");
+        OtpCode cached = activeStore != null ? activeStore.get(userId, operationId) : null;
+        boolean valid = cached != null
+            ? consumeCached(cached, code)
+            : consumeStored(userId, operationId, code);
+        if (valid) {
+            logger.debug("OTP validated for user {} operation {}", userId, operationId);
             return true;
         }
         logger.warn("OTP validation failed for user {} operation {}", userId, operationId);
         return false;
     }
 
-    public void expireOtps() throws SQLException {
-        otpCodeDao.expireOldCodes();
-        logger.info("Expired OTP codes by scheduler");
+    private boolean consumeCached(OtpCode cached, String code) throws SQLException {
+        if (!cached.getCode().equals(code)) {
+            return false;
+        }
+        if (cached.getExpiresAt().isBefore(LocalDateTime.now())) {
+            activeStore.remove(cached);
+            return false;
+        }
+        // Память лишь отсеивает неверные коды; погашение — условным UPDATE в БД, иначе код,
+        // уже погашенный или заменённый на другом узле, прошёл бы здесь повторно
+        activeStore.remove(cached);
+        return consumeStored(cached.getUserId(), cached.getOperationId(), code);
+    }
+
+    private boolean consumeStored(int userId, String operationId, String code) throws SQLException {
+        return otpCodeDao.consume(userId, operationId, code).isPresent();
+    }
+
+    /**
+     * Один проход истечения: порции по chunkSize строк, не больше maxChunks за вызов.
+     * Возвращает число помеченных EXPIRED строк; если оно равно chunkSize * maxChunks,
+     * в таблице, вероятно, остался хвост.
+     */
+    public int expireOtps(int chunkSize, int maxChunks) throws SQLException {
+        int total = 0;
+        OtpCodeDao.ExpiryCursor cursor = OtpCodeDao.ExpiryCursor.START;
+        for (int i = 0; i < maxChunks; i++) {
+            OtpCodeDao.ExpiredChunk chunk = otpCodeDao.expireChunk(cursor, chunkSize);
+            total += chunk.count();
+            if (chunk.count() < chunkSize) {
+                break;
+            }
+            cursor = chunk.next();
+        }
+        if (activeStore != null) {
+            int evicted = activeStore.evictExpired(LocalDateTime.now());
+            logger.debug("Evicted {} expired OTP codes from memory", evicted);
+        }
+        if (total > 0) {
+            logger.info("Expired {} OTP codes by scheduler", total);
+        }
+        return total;
+    }
+
+    /**
+     * Создаёт суточные секции otp_codes на сегодня и premakeDays вперёд, удаляет секции,
+     * целиком старше retention, и такие же старые строки DEFAULT (нулевой retention — ничего
+     * не удалять). Сегодняшняя секция обычно уже создана заранее или покрыта otp_codes_legacy
+     * в день миграции; если обслуживание отстало, её строки переносятся из DEFAULT.
+     * Возвращает число строк, оставшихся в DEFAULT.
+     */
+    public long maintainPartitions(int premakeDays, Duration retention) throws SQLException {
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i <= premakeDays; i++) {
+            partitionDao.createDailyPartition(today.plusDays(i));
+        }
+        if (!retention.isZero()) {
+            LocalDateTime cutoff = LocalDateTime.now().minus(retention);
+            partitionDao.dropPartitionsBefore(cutoff);
+            partitionDao.purgeDefaultBefore(cutoff);
+        }
+        return partitionDao.countDefaultRows();
+    }
+
+    /** Сохраняет настройки OTP и сразу применяет их на этом и (через NOTIFY) остальных узлах. */
+    public void updateConfig(int codeLength, int ttlSeconds) throws SQLException {
+        configCache.update(codeLength, ttlSeconds);
+    }
+
+    /** Забывает активные коды удалённого пользователя. */
+    public void evictUser(int userId) {
+        if (activeStore != null) {
+            activeStore.removeUser(userId);
+        }
+    }
+
+    /** Останавливает фоновые потоки настроек; вызывается при остановке сервера. */
+    public void shutdown() {
+        configCache.shutdown();
     }
 
-    private String randomCode(int length) {
+    static String randomCode(int length) {
         StringBuilder sb = new StringBuilder(length);
         for (int i = 0; i < length; i++) {
             sb.append(RANDOM.nextInt(10));
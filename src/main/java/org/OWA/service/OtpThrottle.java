@@ -0,0 +1,117 @@
+package org.OWA.service;
+
+import org.OWA.util.AppConfig;
+import org.OWA.util.Metrics;
+import org.OWA.util.StripedTokenBuckets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничение частоты генерации OTP в памяти процесса, до обращения к БД и каналу доставки.
+ *
+ * Для каждого канала два набора token bucket: на пользователя и на пару (пользователь, операция),
+ * лимиты — otp.throttle.&lt;канал&gt;.user.* и otp.throttle.&lt;канал&gt;.operation.*. Сначала проверяется
+ * лимит пользователя, поэтому новые operationId не раздувают таблицу сверх его лимита.
+ * Операция входит в ключ 32-битным хешем: при совпадении хешей две операции делят один лимит.
+ */
+public class OtpThrottle {
+    private static final String[][] DEFAULTS = {
+        // канал, в минуту на пользователя, всплеск, в минуту на операцию, всплеск
+        {"file", "60", "20", "10", "5"},
+        {"email", "10", "5", "3", "3"},
+        {"sms", "5", "3", "2", "2"},
+        {"telegram", "10", "5", "3", "3"},
+    };
+
+    private final boolean enabled = AppConfig.getBoolean("otp.throttle.enabled", true);
+    private final Map<String, ChannelLimits> channels = new HashMap<>();
+
+    private static final class ChannelLimits {
+        final StripedTokenBuckets perUser;
+        final StripedTokenBuckets perOperation;
+        final LongAdder userRejected;
+        final LongAdder operationRejected;
+
+        ChannelLimits(String channel, String[] defaults) {
+            String prefix = "otp.throttle." + channel;
+            perUser = new StripedTokenBuckets(
+                AppConfig.getDouble(prefix + ".user.per.minute", Double.parseDouble(defaults[1])) / 60,
+                AppConfig.getInt(prefix + ".user.burst", Integer.parseInt(defaults[2])));
+            perOperation = new StripedTokenBuckets(
+                AppConfig.getDouble(prefix + ".operation.per.minute", Double.parseDouble(defaults[3])) / 60,
+                AppConfig.getInt(prefix + ".operation.burst", Integer.parseInt(defaults[4])));
+            String labels = "channel=\"" + channel + "\"";
+            userRejected = Metrics.counter("otp_throttled_total", "OTP generation requests rejected by the rate limiter",
+                labels + ",scope=\"user\"");
+            operationRejected = Metrics.counter("otp_throttled_total", "OTP generation requests rejected by the rate limiter",
+                labels + ",scope=\"operation\"");
+            Metrics.gauge("otp_throttle_tracked_keys", "Keys held by the OTP rate limiter", labels,
+                () -> perUser.size() + perOperation.size());
+        }
+    }
+
+    public OtpThrottle() {
+        for (String[] defaults : DEFAULTS) {
+            channels.put(defaults[0], new ChannelLimits(defaults[0], defaults));
+        }
+    }
+
+    /** 0 — код можно генерировать, иначе через сколько наносекунд повторить запрос. */
+    public long acquire(int userId, String operationId, String channel) {
+        ChannelLimits limits = channels.get(channel);
+        if (!enabled || limits == null) {
+            return 0;
+        }
+        long wait = limits.perUser.tryAcquire(userId, 1);
+        if (wait > 0) {
+            limits.userRejected.increment();
+            return wait;
+        }
+        wait = limits.perOperation.tryAcquire(operationKey(userId, operationId), 1);
+        if (wait > 0) {
+            limits.operationRejected.increment();
+            limits.perUser.refund(userId, 1);
+        }
+        return wait;
+    }
+
+    /**
+     * Пакет тратит по токену на каждую операцию из лимита пользователя.
+     * Пакет больше всплеска пользователя не пройдёт никогда — IllegalArgumentException.
+     * При отказе по лимиту одной из операций уже списанные токены возвращаются: отклонённый
+     * пакет не расходует лимит.
+     */
+    public long acquireBatch(int userId, List<String> operationIds, String channel) {
+        ChannelLimits limits = channels.get(channel);
+        if (!enabled || limits == null) {
+            return 0;
+        }
+        if (operationIds.size() > limits.perUser.getBurst()) {
+            throw new IllegalArgumentException("Batch size exceeds " + limits.perUser.getBurst() + " codes allowed for "
+                + channel + " at once");
+        }
+        long wait = limits.perUser.tryAcquire(userId, operationIds.size());
+        if (wait > 0) {
+            limits.userRejected.increment();
+            return wait;
+        }
+        for (int i = 0; i < operationIds.size(); i++) {
+            wait = limits.perOperation.tryAcquire(operationKey(userId, operationIds.get(i)), 1);
+            if (wait > 0) {
+                limits.operationRejected.increment();
+                for (int j = 0; j < i; j++) {
+                    limits.perOperation.refund(operationKey(userId, operationIds.get(j)), 1);
+                }
+                limits.perUser.refund(userId, operationIds.size());
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    private static long operationKey(int userId, String operationId) {
+        return ((long) userId << 32) | (operationId.hashCode() & 0xffffffffL);
+    }
+}
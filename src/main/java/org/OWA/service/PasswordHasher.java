@@ -0,0 +1,102 @@
+package org.OWA.service;
+
+import org.OWA.util.RequestTrace;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BCrypt на отдельном пуле по числу ядер с ограниченной очередью. Хеширование не занимает
+ * потоки HTTP-сервера, а при переполнении очереди запрос сразу отклоняется
+ * (AdmissionRejectedException с причиной QUEUE_FULL), вместо того чтобы ждать.
+ */
+class PasswordHasher {
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+    private final ThreadPoolExecutor executor;
+    private final int cost;
+
+    PasswordHasher(int threads, int queueCapacity, int cost) {
+        this.cost = cost;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity), r -> {
+                Thread t = new Thread(r, "bcrypt-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Password hasher: threads={}, queue={}, cost={}", threads, queueCapacity, cost);
+    }
+
+    String hash(String password) {
+        return run(() -> BCrypt.hashpw(password, BCrypt.gensalt(cost)));
+    }
+
+    boolean check(String password, String hashedPassword) {
+        return run(() -> {
+            try {
+                return BCrypt.checkpw(password, hashedPassword);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Invalid hash format encountered", e);
+                return false;
+            }
+        });
+    }
+
+    /** true, если хеш создан с меньшей стоимостью, чем настроена сейчас. */
+    boolean needsRehash(String hashedPassword) {
+        // Формат: $2a$NN$...
+        if (hashedPassword == null || hashedPassword.length() < 7 || hashedPassword.charAt(3) != '$') {
+            return false;
+        }
+        try {
+            return Integer.parseInt(hashedPassword.substring(4, 6)) < cost;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /** Фоновое перехеширование; при занятой очереди просто пропускается до следующего входа. */
+    void rehashAsync(String password, Consumer<String> onHashed) {
+        try {
+            executor.execute(() -> onHashed.accept(BCrypt.hashpw(password, BCrypt.gensalt(cost))));
+        } catch (RejectedExecutionException e) {
+            logger.debug("Rehash skipped, password hasher queue is full");
+        }
+    }
+
+    private <T> T run(Callable<T> task) {
+        return RequestTrace.stage("auth.bcrypt", () -> submitAndWait(task));
+    }
+
+    private <T> T submitAndWait(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new AdmissionRejectedException(AdmissionRejectedException.Reason.QUEUE_FULL,
+                "Password hashing queue is full");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
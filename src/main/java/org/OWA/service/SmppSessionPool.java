@@ -0,0 +1,243 @@
+package org.OWA.service;
+
+import org.OWA.util.TokenBucket;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.smpp.ServerPDUEvent;
+import org.smpp.ServerPDUEventListener;
+import org.smpp.Session;
+import org.smpp.TCPIPConnection;
+import org.smpp.pdu.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Пул долгоживущих привязанных (bind_transmitter) SMPP-сессий.
+ * На каждую сессию допускается не больше window одновременно неподтверждённых submit_sm,
+ * общий темп отправки ограничен TPS, разрешённым SMSC. Сессии поддерживаются enquire_link
+ * и перепривязываются после ошибки.
+ *
+ * Сессии работают в асинхронном режиме opensmpp: запрос уходит сразу, а ответ приходит в
+ * handleEvent и сопоставляется с ожидающим отправителем по sequence_number. Поэтому submit_sm
+ * из окна и enquire_link одновременно идут по одной сессии, не мешая друг другу.
+ */
+class SmppSessionPool {
+    private static final Logger logger = LoggerFactory.getLogger(SmppSessionPool.class);
+
+    private final String host;
+    private final int port;
+    private final String systemId;
+    private final String password;
+    private final String systemType;
+    private final String sourceAddr;
+    private final long windowTimeoutMs;
+    private final PooledSession[] sessions;
+    private final TokenBucket throttle;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService keepAlive;
+
+    private final class PooledSession implements ServerPDUEventListener {
+        private final int index;
+        private final Semaphore window;
+        // Запросы, ждущие ответа, по sequence_number
+        private final Map<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+        private volatile Session session;
+
+        PooledSession(int index, int windowSize) {
+            this.index = index;
+            this.window = new Semaphore(windowSize);
+        }
+
+        synchronized Session bound() throws Exception {
+            if (session == null) {
+                session = bind(this);
+                logger.info("SMPP session {} bound to {}:{}", index, host, port);
+            }
+            return session;
+        }
+
+        /** Отправляет запрос и ждёт ответа с тем же sequence_number не дольше windowTimeoutMs. */
+        Response send(Request request) throws Exception {
+            Session current = bound();
+            request.assignSequenceNumber();
+            int sequence = request.getSequenceNumber();
+            CompletableFuture<Response> response = new CompletableFuture<>();
+            pending.put(sequence, response);
+            try {
+                if (request instanceof SubmitSM) {
+                    current.submit((SubmitSM) request);
+                } else {
+                    current.enquireLink((EnquireLink) request);
+                }
+                return response.get(windowTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                invalidate(current);
+                throw new IOException("SMPP session " + index + " failed", e.getCause());
+            } catch (Exception e) {
+                invalidate(current);
+                throw e;
+            } finally {
+                pending.remove(sequence);
+            }
+        }
+
+        @Override
+        public void handleEvent(ServerPDUEvent event) {
+            PDU pdu = event.getPDU();
+            if (pdu.isResponse()) {
+                CompletableFuture<Response> waiter = pending.remove(pdu.getSequenceNumber());
+                if (waiter != null) {
+                    waiter.complete((Response) pdu);
+                } else {
+                    logger.debug("SMPP session {}: response for unknown sequence {}", index, pdu.getSequenceNumber());
+                }
+            } else if (pdu.isRequest()) {
+                // enquire_link и прочие запросы SMSC подтверждаем стандартным ответом
+                Session current = session;
+                if (current != null) {
+                    try {
+                        current.respond(((Request) pdu).getResponse());
+                    } catch (Exception e) {
+                        logger.warn("SMPP session {}: failed to respond to SMSC request: {}", index, e.getMessage());
+                    }
+                }
+            }
+        }
+
+        synchronized void invalidate(Session broken) {
+            if (session == broken) {
+                session = null;
+                closeQuietly(broken);
+                failPending();
+                logger.warn("SMPP session {} invalidated, will rebind on next use", index);
+            }
+        }
+
+        private void failPending() {
+            IOException closed = new IOException("SMPP session " + index + " closed");
+            for (CompletableFuture<Response> waiter : pending.values()) {
+                waiter.completeExceptionally(closed);
+            }
+            pending.clear();
+        }
+
+        void enquireLink() {
+            Session current = session;
+            if (current == null) {
+                return;
+            }
+            try {
+                Response resp = send(new EnquireLink());
+                if (resp.getCommandStatus() != 0) {
+                    invalidate(current);
+                }
+            } catch (Exception e) {
+                // send() уже сбросил сессию
+                logger.warn("SMPP enquire_link failed on session {}: {}", index, e.getMessage());
+            }
+        }
+
+        synchronized void close() {
+            if (session != null) {
+                closeQuietly(session);
+                session = null;
+                failPending();
+            }
+        }
+    }
+
+    SmppSessionPool(String host, int port, String systemId, String password, String systemType, String sourceAddr,
+                    int sessionCount, int windowSize, double tps, long windowTimeoutMs, long enquireLinkIntervalMs) {
+        this.host = host;
+        this.port = port;
+        this.systemId = systemId;
+        this.password = password;
+        this.systemType = systemType;
+        this.sourceAddr = sourceAddr;
+        this.windowTimeoutMs = windowTimeoutMs;
+        this.throttle = new TokenBucket(tps, Math.max(1, (int) tps));
+        this.sessions = new PooledSession[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            sessions[i] = new PooledSession(i, windowSize);
+        }
+        this.keepAlive = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smpp-enquire-link");
+            t.setDaemon(true);
+            return t;
+        });
+        keepAlive.scheduleWithFixedDelay(() -> {
+            for (PooledSession s : sessions) {
+                s.enquireLink();
+            }
+        }, enquireLinkIntervalMs, enquireLinkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    Response submit(SubmitSM submit) throws Exception {
+        throttle.acquire();
+        PooledSession pooled = acquireWindow();
+        try {
+            return pooled.send(submit);
+        } finally {
+            pooled.window.release();
+        }
+    }
+
+    /** Выбирает сессию со свободным местом в окне, начиная по кругу. */
+    private PooledSession acquireWindow() throws Exception {
+        int start = Math.floorMod(next.getAndIncrement(), sessions.length);
+        for (int i = 0; i < sessions.length; i++) {
+            PooledSession candidate = sessions[(start + i) % sessions.length];
+            if (candidate.window.tryAcquire()) {
+                return candidate;
+            }
+        }
+        PooledSession fallback = sessions[start];
+        if (!fallback.window.tryAcquire(windowTimeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new Exception("SMPP submit window exhausted on all sessions");
+        }
+        return fallback;
+    }
+
+    private Session bind(ServerPDUEventListener listener) throws Exception {
+        TCPIPConnection connection = new TCPIPConnection(host, port);
+        Session session = new Session(connection);
+
+        BindRequest bindReq = new BindTransmitter();
+        bindReq.setSystemId(systemId);
+        bindReq.setPassword(password);
+        bindReq.setSystemType(systemType);
+        bindReq.setAddressRange(sourceAddr);
+
+        // Привязка с обработчиком переводит сессию в асинхронный режим
+        BindResponse bindResp = session.bind(bindReq, listener);
+        if (bindResp.getCommandStatus() != 0) {
+            session.close();
+            throw new Exception("SMPP bind failed with status: " + bindResp.getCommandStatus());
+        }
+        return session;
+    }
+
+    private static void closeQuietly(Session session) {
+        try {
+            session.close();
+        } catch (Exception e) {
+            logger.debug("Error closing SMPP session: {}", e.getMessage());
+        }
+    }
+
+    void shutdown() {
+        keepAlive.shutdownNow();
+        for (PooledSession s : sessions) {
+            s.close();
+        }
+        logger.info("SMPP session pool closed");
+    }
+}
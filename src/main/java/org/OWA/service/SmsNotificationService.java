@@ -4,10 +4,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Properties;
 import java.io.InputStream;
-import org.opensmpp.session.SMPPSession;
-import org.opensmpp.session.Session;
-import org.opensmpp.net.TCPIPConnection;
-import org.opensmpp.pdu.*;
+import org.smpp.pdu.*;
 
 public class SmsNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(SmsNotificationService.class);
@@ -18,6 +15,7 @@ public class SmsNotificationService implements NotificationService {
     private String systemType;
     private String sourceAddr;
     private boolean isConfigured;
+    private SmppSessionPool sessionPool;
 
     public SmsNotificationService() {
         Properties props = new Properties();
@@ -50,6 +48,13 @@ public class SmsNotificationService implements NotificationService {
                               
             if (!this.isConfigured) {
                 logger.warn("SMS service configuration is incomplete");
+            } else {
+                this.sessionPool = new SmppSessionPool(host, port, systemId, password, systemType, sourceAddr,
+                    Integer.parseInt(props.getProperty("smpp.sessions", "2")),
+                    Integer.parseInt(props.getProperty("smpp.window", "10")),
+                    Double.parseDouble(props.getProperty("smpp.tps", "50")),
+                    Long.parseLong(props.getProperty("smpp.window.timeout.ms", "10000")),
+                    Long.parseLong(props.getProperty("smpp.enquire_link.interval.ms", "30000")));
             }
         } catch (Exception e) {
             logger.error("Failed to load SMS configuration", e);
@@ -90,40 +95,28 @@ public class SmsNotificationService implements NotificationService {
             throw new IllegalArgumentException("Invalid phone number format: " + destination);
         }
 
-        try (Session session = createAndBindSession()) {
+        try {
             SubmitSM submit = new SubmitSM();
             submit.setSourceAddr(sourceAddr);
             submit.setDestAddr(destination);
             submit.setShortMessage(String.format("Your verification code is: %s. Do not share this code with anyone.", code));
 
-            Response response = session.submit(submit);
+            Response response = sessionPool.submit(submit);
             if (response.getCommandStatus() != 0) {
                 throw new RuntimeException("Failed to send SMS. SMPP error code: " + response.getCommandStatus());
             }
             
-            logger.info("SMS sent successfully to {}", destination);
+            logger.debug("SMS sent successfully to {}", destination);
         } catch (Exception e) {
             logger.error("Failed to send SMS to {}: {}", destination, e.getMessage());
             throw new RuntimeException("Failed to send SMS notification: " + e.getMessage(), e);
         }
     }
 
-    private Session createAndBindSession() throws Exception {
-        TCPIPConnection connection = new TCPIPConnection(host, port);
-        Session session = new Session(connection);
-        
-        BindRequest bindReq = new BindTransmitter();
-        bindReq.setSystemId(systemId);
-        bindReq.setPassword(password);
-        bindReq.setSystemType(systemType);
-        bindReq.setAddressRange(sourceAddr);
-        
-        BindResponse bindResp = session.bind(bindReq);
-        if (bindResp.getCommandStatus() != 0) {
-            session.close();
-            throw new Exception("SMPP bind failed with status: " + bindResp.getCommandStatus());
+    @Override
+    public void shutdown() {
+        if (sessionPool != null) {
+            sessionPool.shutdown();
         }
-        
-        return session;
     }
 }
@@ -0,0 +1,99 @@
+package org.OWA.service;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Небольшой пул подключённых SMTP Transport. Соединение (STARTTLS + AUTH) устанавливается
+ * один раз и переиспользуется для многих писем; перед выдачей проверяется NOOP
+ * (isConnected), после ошибки или maxMessagesPerConnection писем переподключается.
+ */
+class SmtpTransportPool {
+    private static final Logger logger = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    private static final class PooledTransport {
+        final Transport transport;
+        int sent;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+
+    private final BlockingQueue<PooledTransport> idle;
+    private final int maxMessagesPerConnection;
+    private final long borrowTimeoutMs;
+
+    SmtpTransportPool(Session session, int size, int maxMessagesPerConnection, long borrowTimeoutMs) throws MessagingException {
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.borrowTimeoutMs = borrowTimeoutMs;
+        this.idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            // Подключение откладывается до первого письма
+            idle.add(new PooledTransport(session.getTransport("smtp")));
+        }
+    }
+
+    void send(Message message) throws MessagingException {
+        PooledTransport pooled = borrow();
+        try {
+            ensureConnected(pooled);
+            pooled.transport.sendMessage(message, message.getAllRecipients());
+            pooled.sent++;
+        } catch (MessagingException e) {
+            // Соединение могло оборваться на полпути — следующий заём переподключится
+            closeQuietly(pooled);
+            throw e;
+        } finally {
+            idle.offer(pooled);
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        try {
+            PooledTransport pooled = idle.poll(borrowTimeoutMs, TimeUnit.MILLISECONDS);
+            if (pooled == null) {
+                throw new MessagingException("No SMTP connection available within " + borrowTimeoutMs + " ms");
+            }
+            return pooled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for SMTP connection", e);
+        }
+    }
+
+    private void ensureConnected(PooledTransport pooled) throws MessagingException {
+        if (pooled.sent >= maxMessagesPerConnection) {
+            closeQuietly(pooled);
+        }
+        // Для SMTP isConnected() отправляет NOOP и закрывает соединение, если сервер не ответил
+        if (!pooled.transport.isConnected()) {
+            pooled.transport.connect();
+            pooled.sent = 0;
+            logger.debug("SMTP transport connected");
+        }
+    }
+
+    private void closeQuietly(PooledTransport pooled) {
+        try {
+            pooled.transport.close();
+        } catch (MessagingException e) {
+            logger.debug("Error closing SMTP transport: {}", e.getMessage());
+        }
+    }
+
+    void shutdown() {
+        PooledTransport pooled;
+        while ((pooled = idle.poll()) != null) {
+            closeQuietly(pooled);
+        }
+        logger.info("SMTP transport pool closed");
+    }
+}
@@ -4,27 +4,44 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Properties;
 import java.io.InputStream;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import org.apache.http.client.methods.HttpGet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.OWA.util.Metrics;
+import org.OWA.util.TokenBucket;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.util.EntityUtils;
 
 public class TelegramNotificationService implements NotificationService {
     private static final Logger logger = LoggerFactory.getLogger(TelegramNotificationService.class);
+    private static final ObjectMapper objectMapper = new ObjectMapper();
     private final String apiUrl;
     private final String chatId;
     private final boolean isConfigured;
+    // Один клиент с пулом keep-alive соединений на все сообщения
+    private final CloseableHttpClient httpClient;
+    private final TokenBucket rateLimiter;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
 
     public TelegramNotificationService() {
         String tempApiUrl = null;
         String tempChatId = null;
         boolean isValid = false;
+        Properties props = new Properties();
 
         try {
-            Properties props = new Properties();
             try (InputStream in = getClass().getClassLoader().getResourceAsStream("telegram.properties")) {
                 if (in != null) {
                     props.load(in);
@@ -54,6 +71,29 @@ public class TelegramNotificationService implements NotificationService {
         this.chatId = tempChatId;
         this.isConfigured = isValid;
 
+        int maxConnections = Integer.parseInt(props.getProperty("telegram.http.max.connections", "10"));
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        int timeoutMs = Integer.parseInt(props.getProperty("telegram.http.timeout.ms", "10000"));
+        this.httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(timeoutMs)
+                .setConnectionRequestTimeout(timeoutMs)
+                .setSocketTimeout(timeoutMs)
+                .build())
+            .evictIdleConnections(60, TimeUnit.SECONDS)
+            .build();
+        // Все сообщения уходят в один чат, поэтому действует ограничение Telegram на чат
+        this.rateLimiter = new TokenBucket(
+            Double.parseDouble(props.getProperty("telegram.rate.per.second", "1")),
+            Integer.parseInt(props.getProperty("telegram.rate.burst", "3")));
+
+        Metrics.gauge("otp_telegram_in_flight", "Telegram API requests awaiting a response", "", this::getInFlight);
+        Metrics.gauge("otp_telegram_rate_limit_waiting", "Telegram messages waiting for the rate limiter", "",
+            this::getQueueDepth);
+
         if (isConfigured) {
             logger.info("Telegram notification service configured successfully");
         } else {
@@ -67,27 +107,76 @@ public class TelegramNotificationService implements NotificationService {
             throw new IllegalStateException("Telegram service is not properly configured");
         }
 
-        String message = String.format("%s, your confirmation code is: %s", destination, code);
-        String url = String.format("%s?chat_id=%s&text=%s",
-                apiUrl, urlEncode(chatId), urlEncode(message));
-
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpGet request = new HttpGet(url);
-            try (CloseableHttpResponse response = httpClient.execute(request)) {
-                int statusCode = response.getStatusLine().getStatusCode();
-                String responseBody = EntityUtils.toString(response.getEntity());
+        String message = destination + ", your confirmation code is: " + code;
+        HttpPost request = new HttpPost(apiUrl);
+        request.setEntity(new UrlEncodedFormEntity(List.<NameValuePair>of(
+            new BasicNameValuePair("chat_id", chatId),
+            new BasicNameValuePair("text", message)), StandardCharsets.UTF_8));
 
-                if (statusCode != 200) {
-                    logger.error("Telegram API error. Status code: {}, Response: {}", statusCode, responseBody);
-                    throw new RuntimeException("Failed to send Telegram message: " + responseBody);
-                }
+        waiting.incrementAndGet();
+        try {
+            rateLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for Telegram rate limit", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
 
-                logger.info("Telegram message sent successfully to {}", destination);
-            }
+        inFlight.incrementAndGet();
+        int statusCode;
+        String responseBody;
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            statusCode = response.getStatusLine().getStatusCode();
+            responseBody = EntityUtils.toString(response.getEntity());
         } catch (Exception e) {
             logger.error("Error sending Telegram message to {}: {}", destination, e.getMessage());
             throw new RuntimeException("Failed to send Telegram message", e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+
+        if (statusCode == 429) {
+            // Telegram сообщает, сколько ждать: придерживаем все отправки в чат, а повтор
+            // диспетчера дождётся токена после паузы
+            long retryAfter = retryAfterSeconds(responseBody);
+            rateLimiter.pause(TimeUnit.SECONDS.toNanos(retryAfter));
+            logger.warn("Telegram rate limit hit, pausing sends for {} s", retryAfter);
+            throw new RuntimeException("Telegram rate limit exceeded, retry after " + retryAfter + " s");
+        }
+        if (statusCode >= 400 && statusCode < 500) {
+            // Неверный чат, токен или сообщение — повтор не поможет
+            logger.error("Telegram API rejected message. Status code: {}, Response: {}", statusCode, responseBody);
+            throw new IllegalArgumentException("Telegram API rejected message: " + responseBody);
+        }
+        if (statusCode != 200) {
+            logger.error("Telegram API error. Status code: {}, Response: {}", statusCode, responseBody);
+            throw new RuntimeException("Failed to send Telegram message: " + responseBody);
         }
+        logger.debug("Telegram message sent successfully to {}", destination);
+    }
+
+    /** parameters.retry_after из ответа 429; если его нет — одна секунда. */
+    static long retryAfterSeconds(String responseBody) {
+        try {
+            JsonNode retryAfter = objectMapper.readTree(responseBody).path("parameters").path("retry_after");
+            if (retryAfter.canConvertToLong() && retryAfter.asLong() > 0) {
+                return retryAfter.asLong();
+            }
+        } catch (Exception e) {
+            logger.debug("Could not parse Telegram 429 response: {}", e.getMessage());
+        }
+        return 1;
+    }
+
+    /** Число запросов, отправленных в Telegram и ожидающих ответа. */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** Число сообщений, ожидающих разрешения ограничителя скорости. */
+    public int getQueueDepth() {
+        return waiting.get();
     }
 
     @Override
@@ -95,12 +184,12 @@ public class TelegramNotificationService implements NotificationService {
         return isConfigured;
     }
 
-    private String urlEncode(String value) {
+    @Override
+    public void shutdown() {
         try {
-            return URLEncoder.encode(value, StandardCharsets.UTF_8.toString());
+            httpClient.close();
         } catch (Exception e) {
-            logger.error("Error encoding URL parameter: {}", e.getMessage());
-            throw new RuntimeException("URL encoding failed", e);
+            logger.warn("Error closing Telegram HTTP client: {}", e.getMessage());
         }
     }
 }
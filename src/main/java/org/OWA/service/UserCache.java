@@ -0,0 +1,103 @@
+package org.OWA.service;
+
+import org.OWA.dao.UserDao;
+import org.OWA.model.User;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш пользователей для проверки запросов, ограниченный по размеру и времени жизни записи.
+ * Одновременные промахи по одному имени объединяются в один запрос к БД.
+ * Хеш пароля в кэше не хранится.
+ */
+class UserCache {
+    private static final class Entry {
+        final CompletableFuture<Optional<User>> value = new CompletableFuture<>();
+        final long loadedAt = System.nanoTime();
+    }
+
+    private final UserDao userDao;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    UserCache(UserDao userDao, long ttlMs, int maxEntries) {
+        this.userDao = userDao;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.maxEntries = maxEntries;
+    }
+
+    Optional<User> get(String username) throws SQLException {
+        while (true) {
+            Entry current = entries.get(username);
+            if (current != null && (!current.value.isDone() || isFresh(current, System.nanoTime()))) {
+                return await(current);
+            }
+            Entry mine = new Entry();
+            boolean owner = current == null
+                ? entries.putIfAbsent(username, mine) == null
+                : entries.replace(username, current, mine);
+            if (owner) {
+                return load(username, mine);
+            }
+        }
+    }
+
+    private Optional<User> load(String username, Entry entry) throws SQLException {
+        try {
+            Optional<User> user = userDao.findByUsername(username)
+                .map(u -> new User(u.getId(), u.getUsername(), null, u.getRole(), u.getEmail()));
+            entry.value.complete(user);
+            if (user.isEmpty()) {
+                // Отсутствующих не кэшируем, чтобы только что зарегистрированный пользователь сразу был виден
+                entries.remove(username, entry);
+            } else if (entries.size() > maxEntries) {
+                evict();
+            }
+            return user;
+        } catch (SQLException | RuntimeException e) {
+            entries.remove(username, entry);
+            entry.value.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Optional<User> await(Entry entry) throws SQLException {
+        try {
+            return entry.value.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for user lookup", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("User lookup failed", e.getCause());
+        }
+    }
+
+    private boolean isFresh(Entry entry, long now) {
+        return now - entry.loadedAt < ttlNanos;
+    }
+
+    private void evict() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> e.value.isDone() && !isFresh(e, now));
+        // Если устаревших не хватило, освобождаем место произвольными записями
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    void invalidate(String username) {
+        entries.remove(username);
+    }
+}
@@ -0,0 +1,26 @@
+package org.OWA.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Компактный журнал запросов (логгер org.OWA.access): одна строка «метод путь статус время_мкс».
+ * Пишется доля access.log.sample.rate запросов; ответы 5xx пишутся всегда.
+ */
+public final class AccessLog {
+    private static final Logger accessLog = LoggerFactory.getLogger("org.OWA.access");
+    private static final double SAMPLE_RATE = AppConfig.getDouble("access.log.sample.rate", 0.1);
+
+    private AccessLog() {}
+
+    public static void record(String method, String path, int status, long nanos) {
+        if (status < 500 && (SAMPLE_RATE <= 0 || ThreadLocalRandom.current().nextDouble() >= SAMPLE_RATE)) {
+            return;
+        }
+        if (accessLog.isInfoEnabled()) {
+            accessLog.info("{} {} {} {}", method, path, status, TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+}
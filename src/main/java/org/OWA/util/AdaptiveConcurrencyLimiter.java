@@ -0,0 +1,128 @@
+package org.OWA.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Адаптивный лимит одновременных запросов по измеренной задержке (градиентный, в духе TCP Vegas).
+ *
+ * Задержки собираются в окна по WINDOW_SAMPLES запросов (или не дольше секунды). Среднее окна
+ * (короткая задержка) сравнивается с медленно меняющейся долгой: пока они близки, лимит растёт
+ * на sqrt(limit) за окно, а когда короткая заметно больше долгой — очередь растёт, и лимит
+ * умножается на градиент long/short (не меньше 0.5). Ошибки 5xx уменьшают лимит на 10%.
+ * Окна, где занято меньше половины лимита, не увеличивают его: нагрузка ниже предела ничего
+ * о нём не говорит. Снижение же работает всегда — занятость может упираться в размер пула,
+ * а рост задержки в очереди пула виден и тогда.
+ * Запрос сверх лимита не ждёт, а сразу получает отказ.
+ */
+public final class AdaptiveConcurrencyLimiter {
+    private static final int WINDOW_SAMPLES = 20;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Долгая задержка — экспоненциальное среднее примерно за 100 окон
+    private static final double LONG_WINDOW = 100;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected;
+    private volatile int limit;
+
+    // Состояние окна и оценки — под монитором this
+    private double estimatedLimit;
+    private double longRtt;
+    private long windowStart = System.nanoTime();
+    private double windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > maxLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid limits for " + name + ": " + minLimit + " <= " + initialLimit + " <= " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = initialLimit;
+        this.limit = initialLimit;
+        String labels = "group=\"" + name + "\"";
+        this.rejected = Metrics.counter("otp_concurrency_rejected_total", "Requests rejected by the adaptive concurrency limit", labels);
+        Metrics.gauge("otp_concurrency_limit", "Current adaptive concurrency limit", labels, () -> limit);
+        Metrics.gauge("otp_concurrency_in_flight", "Requests admitted by the concurrency limiter and still running", labels, inFlight::get);
+    }
+
+    /** Занимает место под запрос; false — лимит исчерпан, запрос нужно отклонить. */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Освобождает место и учитывает задержку запроса с момента startNanos (включая ожидание
+     * в очереди пула). dropped — запрос завершился перегрузкой или ошибкой сервера.
+     */
+    public void release(long startNanos, boolean dropped) {
+        long now = System.nanoTime();
+        int inFlightAtRelease = inFlight.getAndDecrement();
+        sample(now - startNanos, inFlightAtRelease, dropped, now);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    private synchronized void sample(long rttNanos, int inFlightAtRelease, boolean dropped, long now) {
+        windowSum += rttNanos;
+        windowCount++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtRelease);
+        windowDropped |= dropped;
+        if (windowCount < WINDOW_SAMPLES && now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+        double shortRtt = Math.max(1, windowSum / windowCount);
+        int maxInFlight = windowMaxInFlight;
+        boolean anyDropped = windowDropped;
+        windowStart = now;
+        windowSum = 0;
+        windowCount = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+        update(shortRtt, maxInFlight, anyDropped);
+    }
+
+    private void update(double shortRtt, int maxInFlight, boolean dropped) {
+        if (longRtt == 0) {
+            longRtt = shortRtt;
+        } else {
+            longRtt += (shortRtt - longRtt) / LONG_WINDOW;
+        }
+        // Задержка упала намного ниже долгой (нагрузка ушла): догоняем быстрее, чем за LONG_WINDOW
+        if (longRtt / shortRtt > 2) {
+            longRtt *= 0.95;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double next;
+        if (dropped) {
+            next = estimatedLimit * BACKOFF;
+        } else if (gradient < 1.0) {
+            next = estimatedLimit * (1 - SMOOTHING) + estimatedLimit * gradient * SMOOTHING;
+        } else if (maxInFlight < estimatedLimit / 2) {
+            return;
+        } else {
+            next = estimatedLimit * (1 - SMOOTHING) + (estimatedLimit + Math.sqrt(estimatedLimit)) * SMOOTHING;
+        }
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, next));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,94 @@
+package org.OWA.util;
+
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Доступ к application.properties с подстановкой значений вида ${ENV_VAR:default}
+ * из переменных окружения.
+ */
+public class AppConfig {
+    private static final Logger logger = LoggerFactory.getLogger(AppConfig.class);
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z0-9_]+)(?::([^}]*))?}");
+    private static final Properties props = load();
+
+    private AppConfig() {}
+
+    private static Properties load() {
+        Properties props = new Properties();
+        try (var in = AppConfig.class.getClassLoader().getResourceAsStream("application.properties")) {
+            if (in != null) {
+                props.load(in);
+            } else {
+                logger.warn("application.properties not found, using defaults");
+            }
+        } catch (Exception e) {
+            logger.warn("Could not load application.properties, using defaults", e);
+        }
+        return props;
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        Matcher m = PLACEHOLDER.matcher(value.trim());
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            String env = System.getenv(m.group(1));
+            String replacement = env != null ? env : (m.group(2) != null ? m.group(2) : "");
+            m.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+        }
+        m.appendTail(sb);
+        String resolved = sb.toString();
+        return resolved.isEmpty() ? defaultValue : resolved;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid integer for {}: '{}', using default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid number for {}: '{}', using default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static double getDouble(String key, double defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid number for {}: '{}', using default {}", key, value, defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
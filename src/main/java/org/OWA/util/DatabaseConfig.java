@@ -2,15 +2,25 @@ package org.OWA.util;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.sql.Connection;
+import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Properties;
+import javax.sql.DataSource;
 
 public class DatabaseConfig {
     private static final Logger logger = LoggerFactory.getLogger(DatabaseConfig.class);
+    private static final int POOL_SIZE = Integer.parseInt(System.getenv().getOrDefault("DB_POOL_SIZE", "10"));
+    private static final long CONNECTION_TIMEOUT_MS = 30000;
     private static HikariDataSource dataSource;
+    private static String jdbcUrl;
+    private static String dbUsername;
+    private static String dbPassword;
 
     static {
         try {
@@ -25,16 +35,20 @@ public class DatabaseConfig {
             }
 
             HikariConfig config = new HikariConfig();
-            config.setJdbcUrl(getRequiredProperty(props, "db.url"));
-            config.setUsername(getRequiredProperty(props, "db.username"));
-            config.setPassword(getRequiredProperty(props, "db.password"));
+            jdbcUrl = getRequiredProperty(props, "db.url");
+            dbUsername = getRequiredProperty(props, "db.username");
+            dbPassword = getRequiredProperty(props, "db.password");
+            config.setJdbcUrl(jdbcUrl);
+            config.setUsername(dbUsername);
+            config.setPassword(dbPassword);
             
             // Настройки пула соединений
-            config.setMaximumPoolSize(10);
-            config.setMinimumIdle(5);
+            config.setMaximumPoolSize(POOL_SIZE);
+            config.setMinimumIdle(Math.min(5, POOL_SIZE));
+            config.setAutoCommit(false);
             config.setIdleTimeout(300000); // 5 минут
             config.setMaxLifetime(600000); // 10 минут
-            config.setConnectionTimeout(30000); // 30 секунд
+            config.setConnectionTimeout(CONNECTION_TIMEOUT_MS); // 30 секунд
             
             dataSource = new HikariDataSource(config);
             logger.info("Database connection pool initialized");
@@ -52,17 +66,57 @@ public class DatabaseConfig {
         return value;
     }
 
+    public static DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /** Текущее состояние пула (активные, простаивающие, ожидающие потоки). */
+    public static HikariPoolMXBean getPoolStats() {
+        return dataSource.getHikariPoolMXBean();
+    }
+
+    public static int getPoolSize() {
+        return POOL_SIZE;
+    }
+
+    public static long getConnectionTimeoutMs() {
+        return CONNECTION_TIMEOUT_MS;
+    }
+
     public static Connection getConnection() throws SQLException {
         try {
-            Connection conn = dataSource.getConnection();
-            conn.setAutoCommit(false); // Включаем транзакции
-            return conn;
+            return dataSource.getConnection();
         } catch (SQLException e) {
             logger.error("Failed to get database connection", e);
             throw e;
         }
     }
 
+    /**
+     * Отдельное соединение вне пула для долгоживущих задач (LISTEN), чтобы не занимать слот пула.
+     * Закрывать должен вызывающий.
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        return DriverManager.getConnection(jdbcUrl, dbUsername, dbPassword);
+    }
+
+    /** Применяет миграции из db/migration; БД со схемой, но без истории Flyway, считается версией 1. */
+    public static void migrate() {
+        try {
+            Flyway flyway = Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                .baselineOnMigrate(true)
+                .baselineVersion("1")
+                .load();
+            int applied = flyway.migrate().migrationsExecuted;
+            logger.info("Database migrations applied: {}", applied);
+        } catch (FlywayException e) {
+            logger.error("Database migration failed", e);
+            throw e;
+        }
+    }
+
     public static void closePool() {
         if (dataSource != null && !dataSource.isClosed()) {
             dataSource.close();
@@ -2,7 +2,16 @@ package org.OWA.util;
 
 import org.OWA.model.User;
 import io.jsonwebtoken.*;
+import io.jsonwebtoken.impl.TextCodec;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.spec.SecretKeySpec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,6 +19,50 @@ public class JwtUtil {
     private static final Logger logger = LoggerFactory.getLogger(JwtUtil.class);
     private static final String SECRET;
     private static final long EXPIRATION;
+    // Ключ и парсер создаются один раз; секрет трактуется как Base64, как и в signWith(alg, String)
+    private static final Key SIGNING_KEY;
+    private static final JwtParser PARSER;
+    private static final int CACHE_MAX_ENTRIES = AppConfig.getInt("jwt.cache.max.entries", 10_000);
+    // SHA-256 токена -> уже проверенные claims; запись действительна до exp токена
+    private static final Map<TokenDigest, VerifiedToken> VERIFIED = new ConcurrentHashMap<>();
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final class TokenDigest {
+        private final byte[] bytes;
+        private final int hash;
+
+        TokenDigest(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TokenDigest && Arrays.equals(bytes, ((TokenDigest) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class VerifiedToken {
+        final Claims claims;
+        final long expiresAtMillis;
+
+        VerifiedToken(Claims claims) {
+            this.claims = claims;
+            Date exp = claims.getExpiration();
+            this.expiresAtMillis = exp != null ? exp.getTime() : Long.MAX_VALUE;
+        }
+    }
 
     static {
         // Загрузка секрета из переменной окружения
@@ -31,6 +84,9 @@ public class JwtUtil {
             }
         }
         EXPIRATION = expiration;
+
+        SIGNING_KEY = new SecretKeySpec(TextCodec.BASE64.decode(SECRET), SignatureAlgorithm.HS256.getJcaName());
+        PARSER = Jwts.parser().setSigningKey(SIGNING_KEY);
     }
 
     public static String generateToken(User user) {
@@ -39,13 +95,13 @@ public class JwtUtil {
             .claim("role", user.getRole())
             .setIssuedAt(new Date())
             .setExpiration(new Date(System.currentTimeMillis() + EXPIRATION))
-            .signWith(SignatureAlgorithm.HS256, SECRET)
+            .signWith(SignatureAlgorithm.HS256, SIGNING_KEY)
             .compact();
     }
 
     public static Jws<Claims> parseToken(String token) {
         try {
-            return Jwts.parser().setSigningKey(SECRET).parseClaimsJws(token);
+            return PARSER.parseClaimsJws(token);
         } catch (ExpiredJwtException e) {
             logger.warn("Expired JWT token");
             throw e;
@@ -64,6 +120,34 @@ public class JwtUtil {
         }
     }
 
+    /**
+     * Проверяет токен и возвращает его claims. Подпись проверяется только при первом предъявлении
+     * токена, дальше до истечения exp claims берутся из кэша.
+     *
+     * @throws ExpiredJwtException если срок действия токена истёк
+     * @throws JwtException        если токен некорректен или подпись неверна
+     */
+    public static Claims verify(String token) {
+        TokenDigest key = new TokenDigest(SHA256.get().digest(token.getBytes(StandardCharsets.UTF_8)));
+        VerifiedToken cached = VERIFIED.get(key);
+        long now = System.currentTimeMillis();
+        if (cached != null) {
+            if (now < cached.expiresAtMillis) {
+                return cached.claims;
+            }
+            VERIFIED.remove(key, cached);
+            throw new ExpiredJwtException(null, cached.claims, "JWT expired");
+        }
+        VerifiedToken verified = new VerifiedToken(parseToken(token).getBody());
+        if (VERIFIED.size() >= CACHE_MAX_ENTRIES) {
+            VERIFIED.values().removeIf(v -> v.expiresAtMillis <= now);
+        }
+        if (VERIFIED.size() < CACHE_MAX_ENTRIES) {
+            VERIFIED.put(key, verified);
+        }
+        return verified.claims;
+    }
+
     public static boolean isTokenExpired(String token) {
         try {
             Claims claims = parseToken(token).getBody();
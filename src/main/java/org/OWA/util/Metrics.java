@@ -0,0 +1,139 @@
+package org.OWA.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Метрики приложения в текстовом формате Prometheus (см. /api/metrics).
+ *
+ * Запись не берёт блокировок: счётчики — LongAdder, задержки пишутся в HdrHistogram Recorder
+ * (wait-free). Накопленные интервалы сливаются в общую гистограмму только при чтении.
+ * Вызывающий код получает объект метрики один раз и дальше пишет в него напрямую.
+ * Метки передаются готовой строкой вида {@code channel="sms"}.
+ */
+public final class Metrics {
+    /** Границы корзин гистограмм, секунды. */
+    private static final double[] BUCKETS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    private Metrics() {}
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Family {
+        final Type type;
+        final String help;
+        final Map<String, Object> series = new ConcurrentHashMap<>();
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /** Распределение задержек в микросекундах. */
+    public static final class Timer {
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder sumMicros = new LongAdder();
+        private final Histogram total = new Histogram(3);
+        private Histogram interval;
+
+        private Timer() {}
+
+        public void recordNanos(long nanos) {
+            long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+            recorder.recordValue(micros);
+            sumMicros.add(micros);
+        }
+
+        /** Записывает время, прошедшее с startNanos (значение System.nanoTime()). */
+        public void stop(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        private synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            return total.copy();
+        }
+    }
+
+    public static LongAdder counter(String name, String help, String labels) {
+        return (LongAdder) family(name, Type.COUNTER, help).series.computeIfAbsent(labels, l -> new LongAdder());
+    }
+
+    public static Timer timer(String name, String help, String labels) {
+        return (Timer) family(name, Type.HISTOGRAM, help).series.computeIfAbsent(labels, l -> new Timer());
+    }
+
+    /** Регистрирует (или заменяет) значение, вычисляемое при каждом чтении метрик. */
+    public static void gauge(String name, String help, String labels, DoubleSupplier value) {
+        family(name, Type.GAUGE, help).series.put(labels, value);
+    }
+
+    private static Family family(String name, Type type, String help) {
+        Family family = families.computeIfAbsent(name, n -> new Family(type, help));
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type);
+        }
+        return family;
+    }
+
+    /** Текущее состояние всех метрик в формате Prometheus 0.0.4. */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> f : new TreeMap<>(families).entrySet()) {
+            String name = f.getKey();
+            Family family = f.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type.name().toLowerCase()).append('\n');
+            for (Map.Entry<String, Object> s : new TreeMap<>(family.series).entrySet()) {
+                String labels = s.getKey();
+                switch (family.type) {
+                    case COUNTER:
+                        sample(out, name, labels, ((LongAdder) s.getValue()).sum());
+                        break;
+                    case GAUGE:
+                        sample(out, name, labels, ((DoubleSupplier) s.getValue()).getAsDouble());
+                        break;
+                    case HISTOGRAM:
+                        histogram(out, name, labels, (Timer) s.getValue());
+                        break;
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static void histogram(StringBuilder out, String name, String labels, Timer timer) {
+        Histogram h = timer.snapshot();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double bound : BUCKETS) {
+            long micros = (long) (bound * 1_000_000);
+            sample(out, name + "_bucket", prefix + "le=\"" + bound + "\"", h.getCountBetweenValues(0, micros));
+        }
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", h.getTotalCount());
+        sample(out, name + "_sum", labels, timer.sumMicros.sum() / 1_000_000.0);
+        sample(out, name + "_count", labels, h.getTotalCount());
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
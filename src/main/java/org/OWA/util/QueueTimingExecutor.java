@@ -0,0 +1,68 @@
+package org.OWA.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фиксированный пул потоков с ограниченной очередью, запоминающий момент постановки задачи
+ * в очередь. Обработчик запроса через {@link #enqueuedAt()} узнаёт, сколько запрос ждал
+ * свободного потока, и учитывает это ожидание в задержке (см. AdaptiveConcurrencyLimiter).
+ *
+ * Задача, не поместившаяся в очередь, выполняется сразу в вызывающем потоке (потоке приёма
+ * соединений HTTP-движка) с признаком {@link #isShed()}: обработчик по нему лишь отвечает 503,
+ * не трогая БД и каналы. Так очередь не растёт без предела, а клиент получает ответ, а не сброс
+ * соединения.
+ */
+public class QueueTimingExecutor extends ThreadPoolExecutor {
+    private static final long UNSET = Long.MIN_VALUE;
+    private static final ThreadLocal<long[]> ENQUEUED_AT = ThreadLocal.withInitial(() -> new long[] {UNSET});
+    private static final ThreadLocal<boolean[]> SHED = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    public QueueTimingExecutor(int threads, int queueCapacity) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), new ShedPolicy());
+    }
+
+    private static final class ShedPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            boolean[] shed = SHED.get();
+            shed[0] = true;
+            try {
+                task.run();
+            } finally {
+                shed[0] = false;
+            }
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        long enqueued = System.nanoTime();
+        super.execute(() -> {
+            long[] slot = ENQUEUED_AT.get();
+            slot[0] = enqueued;
+            try {
+                command.run();
+            } finally {
+                slot[0] = UNSET;
+            }
+        });
+    }
+
+    /** Момент постановки текущей задачи в очередь пула; вне такого пула — текущее время. */
+    public static long enqueuedAt() {
+        long enqueued = ENQUEUED_AT.get()[0];
+        return enqueued == UNSET ? System.nanoTime() : enqueued;
+    }
+
+    /** true, если текущая задача не поместилась в очередь и должна быть сразу отклонена. */
+    public static boolean isShed() {
+        return SHED.get()[0];
+    }
+}
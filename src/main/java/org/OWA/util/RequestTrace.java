@@ -0,0 +1,180 @@
+package org.OWA.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Разбивка времени запроса по этапам (JWT, поиск пользователя, запросы к БД, отправка и т.д.).
+ *
+ * Трасса привязана к потоку запроса: ApiHandler вызывает begin/end, а код ниже оборачивает этапы в
+ * {@code RequestTrace.stage("db.otp_insert", () -> ...)} или {@link #run} (либо закрывает {@link #stage(String)} сам).
+ * Вне запроса (фоновые потоки) stage() ничего не делает. По завершении запроса в логгер
+ * org.OWA.trace пишется строка JSON — для доли trace.sample.rate запросов и для всех запросов
+ * дольше trace.slow.threshold.ms. Повторяющиеся этапы суммируются.
+ */
+public final class RequestTrace {
+    private static final Logger traceLog = LoggerFactory.getLogger("org.OWA.trace");
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final boolean ENABLED = AppConfig.getBoolean("trace.enabled", true);
+    private static final double SAMPLE_RATE = AppConfig.getDouble("trace.sample.rate", 0.01);
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("trace.slow.threshold.ms", 500));
+    private static final int MAX_STAGES = 32;
+    private static final Stage NOOP = () -> {};
+    private static final ThreadLocal<RequestTrace> CURRENT = ThreadLocal.withInitial(RequestTrace::new);
+
+    /** Этап трассы; закрытие фиксирует его длительность. */
+    public interface Stage extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /** Тело этапа, возвращающее результат; может бросать проверяемое исключение E. */
+    @FunctionalInterface
+    public interface StageBody<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /** Тело этапа без результата. */
+    @FunctionalInterface
+    public interface StageAction<E extends Exception> {
+        void run() throws E;
+    }
+
+    private final String[] names = new String[MAX_STAGES];
+    private final long[] totals = new long[MAX_STAGES];
+    private final int[] counts = new int[MAX_STAGES];
+    private final Stage closer = this::closeStage;
+    private final int[] openIndex = new int[MAX_STAGES];
+    private final long[] openStart = new long[MAX_STAGES];
+    private int stageCount;
+    private int depth;
+    private boolean active;
+    private String route;
+    private long startNanos;
+
+    private RequestTrace() {}
+
+    public static void begin(String route) {
+        if (!ENABLED) {
+            return;
+        }
+        RequestTrace trace = CURRENT.get();
+        trace.route = route;
+        trace.stageCount = 0;
+        trace.depth = 0;
+        trace.active = true;
+        trace.startNanos = System.nanoTime();
+    }
+
+    public static Stage stage(String name) {
+        if (!ENABLED) {
+            return NOOP;
+        }
+        RequestTrace trace = CURRENT.get();
+        if (!trace.active || trace.depth == MAX_STAGES) {
+            return NOOP;
+        }
+        int index = trace.indexOf(name);
+        if (index < 0) {
+            return NOOP;
+        }
+        trace.openIndex[trace.depth] = index;
+        trace.openStart[trace.depth] = System.nanoTime();
+        trace.depth++;
+        return trace.closer;
+    }
+
+    /** Выполняет body как этап name и возвращает его результат. */
+    public static <T, E extends Exception> T stage(String name, StageBody<T, E> body) throws E {
+        Stage stage = stage(name);
+        try {
+            return body.call();
+        } finally {
+            stage.close();
+        }
+    }
+
+    /** Выполняет action как этап name (отдельное имя, чтобы лямбды не были неоднозначны со stage). */
+    public static <E extends Exception> void run(String name, StageAction<E> action) throws E {
+        Stage stage = stage(name);
+        try {
+            action.run();
+        } finally {
+            stage.close();
+        }
+    }
+
+    private void closeStage() {
+        if (depth == 0) {
+            return;
+        }
+        depth--;
+        int index = openIndex[depth];
+        totals[index] += System.nanoTime() - openStart[depth];
+        counts[index]++;
+    }
+
+    /** Завершает трассу запроса и при необходимости пишет её в лог. */
+    public static void end(int status) {
+        if (!ENABLED) {
+            return;
+        }
+        RequestTrace trace = CURRENT.get();
+        if (!trace.active) {
+            return;
+        }
+        trace.active = false;
+        long total = System.nanoTime() - trace.startNanos;
+        boolean slow = total >= SLOW_NANOS;
+        if (slow || ThreadLocalRandom.current().nextDouble() < SAMPLE_RATE) {
+            trace.emit(status, total, slow);
+        }
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < stageCount; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        if (stageCount == MAX_STAGES) {
+            return -1;
+        }
+        names[stageCount] = name;
+        totals[stageCount] = 0;
+        counts[stageCount] = 0;
+        return stageCount++;
+    }
+
+    private void emit(int status, long totalNanos, boolean slow) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("route", route);
+        line.put("status", status);
+        line.put("total_ns", totalNanos);
+        line.put("slow", slow);
+        Map<String, Object> stages = new LinkedHashMap<>();
+        for (int i = 0; i < stageCount; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            Map<String, Object> stage = new LinkedHashMap<>();
+            stage.put("ns", totals[i]);
+            if (counts[i] > 1) {
+                stage.put("count", counts[i]);
+            }
+            stages.put(names[i], stage);
+        }
+        line.put("stages", stages);
+        try {
+            traceLog.info(objectMapper.writeValueAsString(line));
+        } catch (JsonProcessingException e) {
+            traceLog.warn("Failed to serialize request trace", e);
+        }
+    }
+}
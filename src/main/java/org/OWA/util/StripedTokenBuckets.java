@@ -0,0 +1,172 @@
+package org.OWA.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Набор token bucket по ключу long с общими ratePerSecond и burst.
+ *
+ * Ключи разнесены по STRIPES независимым полосам со своей блокировкой; внутри полосы —
+ * открытая адресация по примитивным массивам, без объектов на каждый ключ. Ведро, которое
+ * успело наполниться до burst, ничем не отличается от отсутствующего, поэтому при заполнении
+ * таблицы такие записи выбрасываются, и память занимают только недавно активные ключи.
+ */
+public final class StripedTokenBuckets {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_SLOTS = 16;
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private static final class Stripe {
+        long[] keys = new long[INITIAL_SLOTS];
+        double[] tokens = new double[INITIAL_SLOTS];
+        long[] refilled = new long[INITIAL_SLOTS];
+        boolean[] used = new boolean[INITIAL_SLOTS];
+        int size;
+    }
+
+    public StripedTokenBuckets(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public int getBurst() {
+        return (int) capacity;
+    }
+
+    /**
+     * Забирает permits токенов из ведра key. Возвращает 0, если токены выданы, иначе — сколько
+     * наносекунд ждать, пока их накопится достаточно (ведро при этом не списывается).
+     */
+    public long tryAcquire(long key, int permits) {
+        if (permits > capacity) {
+            throw new IllegalArgumentException("Requested " + permits + " permits, burst is " + (int) capacity);
+        }
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            int slot = find(stripe, key, hash);
+            if (slot < 0) {
+                slot = insert(stripe, key, hash, now);
+            }
+            double tokens = Math.min(capacity, stripe.tokens[slot] + (now - stripe.refilled[slot]) * tokensPerNano);
+            stripe.refilled[slot] = now;
+            if (tokens >= permits) {
+                stripe.tokens[slot] = tokens - permits;
+                return 0;
+            }
+            stripe.tokens[slot] = tokens;
+            return (long) Math.ceil((permits - tokens) / tokensPerNano);
+        }
+    }
+
+    /**
+     * Возвращает в ведро key ранее выданные permits токенов (не сверх burst) — когда запрос,
+     * получивший их, всё же отклонён по другому лимиту. Выброшенное ведро и так полное.
+     */
+    public void refund(long key, int permits) {
+        long hash = mix(key);
+        Stripe stripe = stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+        synchronized (stripe) {
+            int slot = find(stripe, key, hash);
+            if (slot >= 0) {
+                stripe.tokens[slot] = Math.min(capacity, stripe.tokens[slot] + permits);
+            }
+        }
+    }
+
+    /** Число отслеживаемых ключей (включая уже наполнившиеся, но ещё не выброшенные). */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    private static int find(Stripe stripe, long key, long hash) {
+        int mask = stripe.keys.length - 1;
+        for (int i = (int) hash & mask; stripe.used[i]; i = (i + 1) & mask) {
+            if (stripe.keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int insert(Stripe stripe, long key, long hash, long now) {
+        if ((stripe.size + 1) * 4 > stripe.keys.length * 3) {
+            rebuild(stripe, now);
+        }
+        int mask = stripe.keys.length - 1;
+        int i = (int) hash & mask;
+        while (stripe.used[i]) {
+            i = (i + 1) & mask;
+        }
+        stripe.used[i] = true;
+        stripe.keys[i] = key;
+        stripe.tokens[i] = capacity;
+        stripe.refilled[i] = now;
+        stripe.size++;
+        return i;
+    }
+
+    /** Выбрасывает наполнившиеся вёдра и при необходимости увеличивает таблицу. */
+    private void rebuild(Stripe stripe, long now) {
+        long[] keys = stripe.keys;
+        double[] tokens = stripe.tokens;
+        long[] refilled = stripe.refilled;
+        boolean[] used = stripe.used;
+        int live = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && tokens[i] + (now - refilled[i]) * tokensPerNano < capacity) {
+                live++;
+            }
+        }
+        int slots = INITIAL_SLOTS;
+        while ((live + 1) * 2 > slots) {
+            slots <<= 1;
+        }
+        stripe.keys = new long[slots];
+        stripe.tokens = new double[slots];
+        stripe.refilled = new long[slots];
+        stripe.used = new boolean[slots];
+        stripe.size = 0;
+        int mask = slots - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (!used[i] || tokens[i] + (now - refilled[i]) * tokensPerNano >= capacity) {
+                continue;
+            }
+            int j = (int) mix(keys[i]) & mask;
+            while (stripe.used[j]) {
+                j = (j + 1) & mask;
+            }
+            stripe.used[j] = true;
+            stripe.keys[j] = keys[i];
+            stripe.tokens[j] = tokens[i];
+            stripe.refilled[j] = refilled[i];
+            stripe.size++;
+        }
+    }
+
+    private static long mix(long key) {
+        // Финальное перемешивание MurmurHash3: старшие биты выбирают полосу, младшие — ячейку
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+}
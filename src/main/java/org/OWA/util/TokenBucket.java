@@ -0,0 +1,68 @@
+package org.OWA.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Простой ограничитель скорости «token bucket»: ratePerSecond токенов в секунду,
+ * не более burst накопленных токенов. acquire() резервирует токен заранее и спит
+ * ровно до момента его появления, поэтому всплески сглаживаются, а не отбрасываются.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("rate and burst must be positive");
+        }
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    /** Резервирует токен и возвращает, сколько наносекунд нужно подождать до его появления. */
+    public synchronized long reserve() {
+        refill(System.nanoTime());
+        tokens -= 1;
+        return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Приостанавливает выдачу токенов на pauseNanos (например, по retry_after от провайдера):
+     * следующий токен появится не раньше, чем через это время.
+     */
+    public synchronized void pause(long pauseNanos) {
+        refill(System.nanoTime());
+        tokens = Math.min(tokens, 1 - pauseNanos * tokensPerNano);
+    }
+
+    /** Сколько наносекунд осталось до появления следующего токена (0 — доступен сейчас). */
+    public synchronized long nanosUntilAvailable() {
+        refill(System.nanoTime());
+        return tokens >= 1 ? 0 : (long) ((1 - tokens) / tokensPerNano);
+    }
+}
@@ -0,0 +1,96 @@
+package org.OWA.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Единица работы поверх пула соединений: на каждую операцию берётся соединение из пула,
+ * выполняется короткая транзакция и соединение сразу возвращается обратно.
+ * Вложенные вызовы в том же потоке присоединяются к уже открытой транзакции.
+ * При заданном лимите число одновременных транзакций ограничивается семафором,
+ * чтобы большое количество виртуальных потоков не выстраивалось в очередь внутри пула.
+ */
+public class TransactionManager {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionManager.class);
+    private final DataSource dataSource;
+    private final ThreadLocal<Connection> current = new ThreadLocal<>();
+    private final Semaphore permits;
+    private final long permitTimeoutMs;
+
+    @FunctionalInterface
+    public interface SqlWork<T> {
+        T execute(Connection conn) throws SQLException;
+    }
+
+    public TransactionManager(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.permits = null;
+        this.permitTimeoutMs = 0;
+    }
+
+    public TransactionManager(DataSource dataSource, int maxConcurrent, long permitTimeoutMs) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive");
+        }
+        this.dataSource = dataSource;
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.permitTimeoutMs = permitTimeoutMs;
+    }
+
+    public <T> T inTransaction(SqlWork<T> work) throws SQLException {
+        Connection active = current.get();
+        if (active != null) {
+            return work.execute(active);
+        }
+        acquirePermit();
+        try (Connection conn = openConnection()) {
+            conn.setAutoCommit(false);
+            current.set(conn);
+            try {
+                T result = work.execute(conn);
+                RequestTrace.run("db.commit", conn::commit);
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                rollbackQuietly(conn);
+                throw e;
+            } finally {
+                current.remove();
+            }
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    private Connection openConnection() throws SQLException {
+        return RequestTrace.stage("db.connection", dataSource::getConnection);
+    }
+
+    private void acquirePermit() throws SQLException {
+        if (permits == null) {
+            return;
+        }
+        try {
+            if (!RequestTrace.stage("db.permit", () -> permits.tryAcquire(permitTimeoutMs, TimeUnit.MILLISECONDS))) {
+                throw new SQLException("Timed out waiting for database access permit");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for database access permit", e);
+        }
+    }
+
+    private void rollbackQuietly(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            logger.error("Failed to rollback transaction", e);
+        }
+    }
+}
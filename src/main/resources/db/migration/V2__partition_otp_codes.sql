@@ -0,0 +1,42 @@
+-- otp_codes секционируется по created_at (по суткам). Существующая таблица подключается
+-- одной секцией до конца текущих суток и удаляется целиком, когда выйдет за срок хранения.
+ALTER TABLE otp_codes RENAME TO otp_codes_legacy;
+ALTER INDEX IF EXISTS otp_codes_pkey RENAME TO otp_codes_legacy_pkey;
+DROP INDEX IF EXISTS idx_otp_codes_user_id;
+DROP INDEX IF EXISTS idx_otp_codes_user_op;
+DROP INDEX IF EXISTS idx_otp_codes_status_expires;
+-- Индекс мог остаться в базах, созданных прежним schema.sql до перехода на миграции
+DROP INDEX IF EXISTS idx_otp_codes_inactive_created;
+
+CREATE TABLE otp_codes (
+    id INT NOT NULL DEFAULT nextval('otp_codes_id_seq'),
+    user_id INT REFERENCES users(id) ON DELETE CASCADE,
+    operation_id VARCHAR(255),
+    code VARCHAR(20) NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    expires_at TIMESTAMP NOT NULL,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+ALTER SEQUENCE otp_codes_id_seq OWNED BY otp_codes.id;
+
+DO $$
+DECLARE
+    bound TIMESTAMP := date_trunc('day', now()::timestamp) + INTERVAL '1 day';
+BEGIN
+    EXECUTE format('ALTER TABLE otp_codes ATTACH PARTITION otp_codes_legacy FOR VALUES FROM (MINVALUE) TO (%L)', bound);
+    FOR i IN 0..2 LOOP
+        EXECUTE format('CREATE TABLE IF NOT EXISTS otp_codes_p%s PARTITION OF otp_codes FOR VALUES FROM (%L) TO (%L)',
+            to_char(bound + i * INTERVAL '1 day', 'YYYYMMDD'),
+            bound + i * INTERVAL '1 day',
+            bound + (i + 1) * INTERVAL '1 day');
+    END LOOP;
+END $$;
+
+-- Страховка на случай, если обслуживание не успело создать секцию заранее
+CREATE TABLE otp_codes_default PARTITION OF otp_codes DEFAULT;
+
+CREATE INDEX idx_otp_codes_user_id ON otp_codes(user_id);
+CREATE INDEX idx_otp_codes_user_op ON otp_codes(user_id, operation_id);
+CREATE INDEX idx_otp_codes_status_expires ON otp_codes(status, expires_at) WHERE status = 'ACTIVE';
@@ -0,0 +1,25 @@
+-- Не больше одного ACTIVE-кода на (user_id, operation_id). Уникальный индекс на секционированной
+-- таблице должен включать ключ секционирования, поэтому индекс строится на каждой секции;
+-- между секциями уникальность обеспечивает OtpCodeDao, истекающий прежний код в транзакции вставки.
+
+-- Прежние дубликаты: оставляем активным только самый новый код
+UPDATE otp_codes o SET status = 'EXPIRED'
+WHERE o.status = 'ACTIVE'
+  AND EXISTS (
+    SELECT 1 FROM otp_codes n
+    WHERE n.user_id = o.user_id AND n.operation_id = o.operation_id AND n.status = 'ACTIVE'
+      AND (n.created_at, n.id) > (o.created_at, o.id)
+  );
+
+DO $$
+DECLARE
+    part TEXT;
+BEGIN
+    FOR part IN
+        SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+        WHERE i.inhparent = 'otp_codes'::regclass
+    LOOP
+        EXECUTE format('CREATE UNIQUE INDEX IF NOT EXISTS %I ON %I (user_id, operation_id) WHERE status = ''ACTIVE''',
+            part || '_one_active', part);
+    END LOOP;
+END $$;